@@ -0,0 +1,319 @@
+package icecube.daq.test;
+
+import icecube.daq.payload.IPayload;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Run another validator off the link's own thread.  Each payload is
+ * copied and queued, and a shared pool of worker threads hands the queued
+ * payloads to the wrapped validator in arrival order, one at a time.
+ * <tt>foundInvalid()</tt> waits for the queue to drain, so a test's
+ * result never depends on how far validation had fallen behind.
+ */
+public class AsyncValidator
+    implements PayloadValidator
+{
+    /** System property which turns on asynchronous validation */
+    public static final String PROPERTY = "icecube.daq.test.asyncValidation";
+    /** System property holding the number of validation threads */
+    public static final String POOL_SIZE_PROPERTY =
+        "icecube.daq.test.validation.poolSize";
+
+    /** Default limit on the number of bytes waiting to be validated */
+    public static final long DEFAULT_MAX_PENDING_BYTES = 64L * 1024 * 1024;
+
+    /** Payloads validated before a worker lets other validators run */
+    private static final int BATCH_SIZE = 256;
+
+    private static ExecutorService pool;
+
+    private PayloadValidator validator;
+    private long maxPendingBytes = DEFAULT_MAX_PENDING_BYTES;
+
+    /** Guards everything below */
+    private Object lock = new Object();
+
+    private ArrayDeque<Pending> queue = new ArrayDeque<Pending>();
+    private boolean scheduled;
+    private long pendingBytes;
+    private int maxQueued;
+    private long numValidated;
+    private long numStalls;
+    private long stallNanos;
+    private Throwable failure;
+
+    /** Time from arrival to the end of validation */
+    private LatencyHistogram lag = new LatencyHistogram();
+    /** Time spent inside the wrapped validator */
+    private LatencyHistogram work = new LatencyHistogram();
+
+    /**
+     * Wrap a validator.
+     *
+     * @param validator validator which does the real work
+     */
+    public AsyncValidator(PayloadValidator validator)
+    {
+        if (validator == null) {
+            throw new Error("Validator cannot be null");
+        }
+
+        this.validator = validator;
+    }
+
+    /**
+     * Get the shared pool of validation threads, creating it if necessary.
+     *
+     * @return thread pool
+     */
+    private static synchronized ExecutorService getPool()
+    {
+        if (pool == null) {
+            final int size =
+                Integer.getInteger(POOL_SIZE_PROPERTY,
+                                   Runtime.getRuntime().availableProcessors());
+            if (size < 1) {
+                throw new Error("Bad validation pool size " + size);
+            }
+
+            pool = Executors.newFixedThreadPool(size,
+                new HarnessThreads.PoolThreadFactory("Validator"));
+        }
+
+        return pool;
+    }
+
+    /**
+     * Validate queued payloads until the queue is empty or this worker
+     * has done its share.
+     */
+    private void drain()
+    {
+        for (int n = 0; ; n++) {
+            Pending pending;
+            synchronized (lock) {
+                if (queue.isEmpty()) {
+                    scheduled = false;
+                    lock.notifyAll();
+                    return;
+                } else if (n >= BATCH_SIZE) {
+                    // give other validators a turn
+                    getPool().execute(new Drainer());
+                    return;
+                }
+
+                pending = queue.peek();
+            }
+
+            final long start = System.nanoTime();
+            try {
+                validator.validate(pending.buf);
+            } catch (Throwable thr) {
+                synchronized (lock) {
+                    if (failure == null) {
+                        failure = thr;
+                    }
+                }
+            }
+            final long end = System.nanoTime();
+
+            work.record(end - start);
+            lag.record(end - pending.arrival);
+
+            synchronized (lock) {
+                queue.poll();
+                pendingBytes -= pending.buf.limit();
+                numValidated++;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Wait for all queued payloads to be validated and report the first
+     * exception thrown by the wrapped validator.
+     */
+    void waitForIdle()
+    {
+        Throwable thr;
+        synchronized (lock) {
+            while (scheduled) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException ie) {
+                    throw new Error("Interrupted while waiting for " +
+                                    validator, ie);
+                }
+            }
+
+            thr = failure;
+        }
+
+        if (thr != null) {
+            throw new Error("Validator " + validator + " failed", thr);
+        }
+    }
+
+    /**
+     * Wait for queued payloads to be validated, then check the result.
+     *
+     * @return <tt>true</tt> if any payload was invalid
+     */
+    @Override
+    public boolean foundInvalid()
+    {
+        waitForIdle();
+
+        return validator.foundInvalid();
+    }
+
+    /**
+     * Get the time from each payload's arrival until it was validated.
+     *
+     * @return validation lag
+     */
+    public LatencyHistogram getLag()
+    {
+        return lag;
+    }
+
+    /**
+     * Summarize validation lag and the time the links spent waiting for
+     * validation to catch up.
+     *
+     * @return report
+     */
+    public String getStatistics()
+    {
+        synchronized (lock) {
+            return validator + ": " + numValidated + " validated, " +
+                queue.size() + " queued (max " + maxQueued + "), lag " +
+                lag.toNanosString() + ", work " + work.toNanosString() +
+                ", " + numStalls + " stalls (" +
+                LatencyHistogram.formatNanos(stallNanos) + ")";
+        }
+    }
+
+    /**
+     * Set the number of bytes which can wait to be validated before links
+     * are made to wait.
+     *
+     * @param maxBytes maximum number of pending bytes
+     */
+    public void setMaxPendingBytes(long maxBytes)
+    {
+        if (maxBytes < 1) {
+            throw new Error("Bad maximum pending bytes " + maxBytes);
+        }
+
+        synchronized (lock) {
+            maxPendingBytes = maxBytes;
+        }
+    }
+
+    /**
+     * Queue a copy of the payload for validation.
+     *
+     * @param payBuf payload bytes (not modified)
+     *
+     * @return <tt>true</tt> (failures are reported by
+     *         <tt>foundInvalid()</tt>)
+     */
+    @Override
+    public boolean validate(ByteBuffer payBuf)
+    {
+        final long arrival = System.nanoTime();
+
+        ByteBuffer copy = ByteBuffer.allocate(payBuf.limit());
+        ByteBuffer dup = payBuf.duplicate();
+        dup.position(0);
+        copy.put(dup);
+        copy.flip();
+
+        synchronized (lock) {
+            if (pendingBytes > 0 && pendingBytes + copy.limit() >
+                maxPendingBytes)
+            {
+                numStalls++;
+                while (pendingBytes > 0 && pendingBytes + copy.limit() >
+                       maxPendingBytes)
+                {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException ie) {
+                        throw new Error("Interrupted while queuing payload" +
+                                        " for " + validator, ie);
+                    }
+                }
+                stallNanos += System.nanoTime() - arrival;
+            }
+
+            queue.add(new Pending(copy, arrival));
+            pendingBytes += copy.limit();
+            if (queue.size() > maxQueued) {
+                maxQueued = queue.size();
+            }
+
+            if (!scheduled) {
+                scheduled = true;
+                getPool().execute(new Drainer());
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Wait for queued payloads to be validated, then validate a decoded
+     * payload directly.
+     *
+     * @param payload payload
+     *
+     * @return <tt>true</tt> if the payload is valid
+     */
+    @Override
+    public boolean validate(IPayload payload)
+    {
+        waitForIdle();
+
+        return validator.validate(payload);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Async[" + validator + "]";
+    }
+
+    /**
+     * Worker task which validates this validator's queued payloads.
+     */
+    class Drainer
+        implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            drain();
+        }
+    }
+
+    /**
+     * A payload waiting to be validated.
+     */
+    static class Pending
+    {
+        ByteBuffer buf;
+        long arrival;
+
+        Pending(ByteBuffer buf, long arrival)
+        {
+            this.buf = buf;
+            this.arrival = arrival;
+        }
+    }
+}
@@ -3,26 +3,351 @@ package icecube.daq.test;
 import icecube.daq.payload.impl.PayloadFactory;
 import icecube.daq.payload.IPayload;
 import icecube.daq.payload.IUTCTime;
+import icecube.daq.payload.PayloadRegistry;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.HashMap;
 
 import org.apache.log4j.Logger;
 
+/**
+ * Validators check each payload in two tiers.  Every payload gets a cheap
+ * structural check which reads lengths, type IDs and times straight from
+ * the buffer.  Payloads are only fully decoded and passed to
+ * <tt>validate(IPayload)</tt> if they are picked by the sampling interval,
+ * have an unfamiliar type, or arrive out of time order.  Time order is
+ * tracked separately for each payload type and source, since a validator
+ * may be shared by several links.
+ */
 public abstract class BaseValidator
     implements PayloadValidator
 {
     private static final Logger LOG = Logger.getLogger(BaseValidator.class);
 
+    /** Length of the envelope shared by all payloads */
+    private static final int ENVELOPE_LENGTH = 16;
+    /** Offset of the readout request element count in a trigger request */
+    private static final int TRIGGER_ELEMENT_COUNT = 60;
+    /** Length of a single readout request element */
+    private static final int ELEMENT_LENGTH = 32;
+    /** Offset of the composite header in readout data */
+    private static final int READOUT_COMPOSITE = 46;
+    /** Offset of the hit count in a hit record list */
+    private static final int RECORD_LIST_COUNT = 24;
+    /** Length of a composite header */
+    private static final int COMPOSITE_HEADER_LENGTH = 8;
+    /** Shortest hit record */
+    private static final int MIN_RECORD_LENGTH = 10;
+    /** Offset of the source ID in simple and expanded delta hits */
+    private static final int HIT_SOURCE_ID = 24;
+    /** Offset of the source ID in a trigger request */
+    private static final int TRIGGER_SOURCE_ID = 30;
+
     private boolean foundInvalid;
     private PayloadFactory factory;
 
+    /** Fully decode every <tt>decodeInterval</tt>th payload */
+    private int decodeInterval = 1;
+    /** Latest time seen on each time-ordered stream */
+    private HashMap<Long, long[]> prevTimes = new HashMap<Long, long[]>();
+
+    private long numChecked;
+    private long numDecoded;
+    private long numOutOfOrder;
+
     @Override
     public boolean foundInvalid()
     {
         return foundInvalid;
     }
 
+    /**
+     * Check the structure of a composite payload's subpayloads.
+     *
+     * @param buf buffer
+     * @param off offset of the composite header
+     * @param end offset just past the end of the enclosing payload
+     *
+     * @return <tt>null</tt> if the composite is valid, otherwise a
+     *         description of the problem
+     */
+    private static String checkComposite(ByteBuffer buf, int off, int end)
+    {
+        if (off + COMPOSITE_HEADER_LENGTH > end) {
+            return "Composite header at " + off + " overflows payload end " +
+                end;
+        }
+
+        final int compLen = buf.getInt(off);
+        if (compLen != end - off) {
+            return "Composite length " + compLen + " at " + off +
+                " should be " + (end - off);
+        }
+
+        final int numSub = buf.getShort(off + 6) & 0xffff;
+
+        int pos = off + COMPOSITE_HEADER_LENGTH;
+        for (int i = 0; i < numSub; i++) {
+            if (pos + 4 > end) {
+                return "Subpayload #" + i + " of " + numSub +
+                    " starts past payload end " + end;
+            }
+
+            final int subLen = buf.getInt(pos);
+            if (subLen < ENVELOPE_LENGTH || pos + subLen > end) {
+                return "Subpayload #" + i + " at " + pos + " has bad length " +
+                    subLen;
+            }
+
+            String err = checkStructure(buf, pos, subLen);
+            if (err != null) {
+                return "Subpayload #" + i + ": " + err;
+            }
+
+            pos += subLen;
+        }
+
+        if (pos != end) {
+            return "Found " + (end - pos) + " extra bytes after " + numSub +
+                " subpayloads";
+        }
+
+        return null;
+    }
+
+    /**
+     * Check the structure of a hit record list.
+     *
+     * @param buf buffer
+     * @param off payload offset
+     * @param end offset just past the end of the payload
+     *
+     * @return <tt>null</tt> if the list is valid, otherwise a description
+     *         of the problem
+     */
+    private static String checkRecordList(ByteBuffer buf, int off, int end)
+    {
+        if (off + RECORD_LIST_COUNT + 4 > end) {
+            return "Hit record list is too short";
+        }
+
+        final int numHits = buf.getInt(off + RECORD_LIST_COUNT);
+
+        int pos = off + RECORD_LIST_COUNT + 4;
+        for (int i = 0; i < numHits; i++) {
+            if (pos + 2 > end) {
+                return "Hit record #" + i + " of " + numHits +
+                    " starts past payload end " + end;
+            }
+
+            final int recLen = buf.getShort(pos) & 0xffff;
+            if (recLen < MIN_RECORD_LENGTH || pos + recLen > end) {
+                return "Hit record #" + i + " at " + pos + " has bad length " +
+                    recLen;
+            }
+
+            pos += recLen;
+        }
+
+        if (pos != end) {
+            return "Found " + (end - pos) + " extra bytes after " + numHits +
+                " hit records";
+        }
+
+        return null;
+    }
+
+    /**
+     * Check the structure of the payload which fills a buffer.
+     *
+     * @param payBuf payload buffer
+     *
+     * @return <tt>null</tt> if the payload is valid, otherwise a
+     *         description of the problem
+     */
+    static String checkPayload(ByteBuffer payBuf)
+    {
+        final int len = payBuf.limit();
+        if (len < 4 || payBuf.getInt(0) != len) {
+            return "Envelope length " + (len < 4 ? -1 : payBuf.getInt(0)) +
+                " does not match buffer length " + len;
+        }
+
+        return checkStructure(payBuf, 0, len);
+    }
+
+    /**
+     * Check the structure of a payload without decoding it.
+     *
+     * @param buf buffer
+     * @param off payload offset
+     * @param len payload length
+     *
+     * @return <tt>null</tt> if the payload is valid, otherwise a
+     *         description of the problem
+     */
+    static String checkStructure(ByteBuffer buf, int off, int len)
+    {
+        if (len < ENVELOPE_LENGTH) {
+            return "Payload length " + len + " is shorter than the envelope";
+        }
+
+        final int type = buf.getInt(off + 4);
+        if (type <= 0) {
+            return "Bad payload type " + type;
+        }
+
+        final int end = off + len;
+
+        switch (type) {
+        case PayloadRegistry.PAYLOAD_ID_TRIGGER_REQUEST:
+            if (off + TRIGGER_ELEMENT_COUNT + 4 > end) {
+                return "Trigger request is too short";
+            }
+
+            final int numElems = buf.getInt(off + TRIGGER_ELEMENT_COUNT);
+            if (numElems < 0 || numElems > len / ELEMENT_LENGTH) {
+                return "Bad readout request element count " + numElems;
+            }
+
+            return checkComposite(buf, off + TRIGGER_ELEMENT_COUNT + 4 +
+                                  numElems * ELEMENT_LENGTH, end);
+        case PayloadRegistry.PAYLOAD_ID_READOUT_DATA:
+            return checkComposite(buf, off + READOUT_COMPOSITE, end);
+        case PayloadRegistry.PAYLOAD_ID_HIT_RECORD_LIST:
+            return checkRecordList(buf, off, end);
+        default:
+            break;
+        }
+
+        return null;
+    }
+
+    /**
+     * Does the structural check understand this payload type?
+     *
+     * @param type payload type
+     *
+     * @return <tt>true</tt> if the type is familiar
+     */
+    static boolean isKnownType(int type)
+    {
+        switch (type) {
+        case PayloadRegistry.PAYLOAD_ID_SIMPLE_HIT:
+        case PayloadRegistry.PAYLOAD_ID_DELTA_HIT:
+        case PayloadRegistry.PAYLOAD_ID_COMPRESSED_HIT_DATA:
+        case PayloadRegistry.PAYLOAD_ID_HIT_RECORD_LIST:
+        case PayloadRegistry.PAYLOAD_ID_TRIGGER_REQUEST:
+        case PayloadRegistry.PAYLOAD_ID_READOUT_DATA:
+        case PayloadRegistry.PAYLOAD_ID_EVENT_V5:
+        case PayloadRegistry.PAYLOAD_ID_EVENT_V6:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Identify the time-ordered stream a payload belongs to.  Delta hits
+     * are skipped because they hold the DOM ID where other payloads hold
+     * their time, and readout data answers requests which may overlap.
+     *
+     * @param buf payload bytes
+     * @param type payload type
+     *
+     * @return payload type and source ID, or <tt>-1</tt> if payloads of
+     *         this type don't arrive in time order
+     */
+    static long getStreamKey(ByteBuffer buf, int type)
+    {
+        final int srcOffset;
+        switch (type) {
+        case PayloadRegistry.PAYLOAD_ID_SIMPLE_HIT:
+        case PayloadRegistry.PAYLOAD_ID_COMPRESSED_HIT_DATA:
+            srcOffset = HIT_SOURCE_ID;
+            break;
+        case PayloadRegistry.PAYLOAD_ID_TRIGGER_REQUEST:
+            srcOffset = TRIGGER_SOURCE_ID;
+            break;
+        default:
+            return -1L;
+        }
+
+        if (buf.limit() < srcOffset + 4) {
+            return -1L;
+        }
+
+        return ((long) type << 32) | (buf.getInt(srcOffset) & 0xffffffffL);
+    }
+
+    /**
+     * Decide whether a structurally valid payload should be fully decoded.
+     *
+     * @param type payload type
+     * @param time payload time
+     * @param streamKey stream returned by <tt>getStreamKey()</tt>
+     *
+     * @return <tt>true</tt> if the payload should be decoded
+     */
+    private synchronized boolean needsDecode(int type, long time,
+                                             long streamKey)
+    {
+        boolean decode = numChecked % decodeInterval == 0 ||
+            !isKnownType(type);
+
+        if (streamKey >= 0) {
+            long[] prevTime = prevTimes.get(streamKey);
+            if (prevTime == null) {
+                prevTimes.put(streamKey, new long[] { time });
+            } else {
+                if (time < prevTime[0]) {
+                    numOutOfOrder++;
+                    decode = true;
+                }
+                prevTime[0] = time;
+            }
+        }
+
+        numChecked++;
+        if (decode) {
+            numDecoded++;
+        }
+
+        return decode;
+    }
+
+    public synchronized long getNumberChecked()
+    {
+        return numChecked;
+    }
+
+    public synchronized long getNumberDecoded()
+    {
+        return numDecoded;
+    }
+
+    public synchronized long getNumberOutOfOrder()
+    {
+        return numOutOfOrder;
+    }
+
+    /**
+     * Set how often payloads are fully decoded.  The first payload, and
+     * every <tt>interval</tt>th payload after it, are decoded; the rest
+     * only get a structural check unless they look suspicious.
+     *
+     * @param interval decoding interval (1 decodes every payload)
+     */
+    public synchronized void setDecodeInterval(int interval)
+    {
+        if (interval < 1) {
+            throw new Error("Bad decode interval " + interval);
+        }
+
+        decodeInterval = interval;
+    }
+
     static long getUTC(IUTCTime time)
     {
         if (time == null) {
@@ -68,6 +393,20 @@ public abstract class BaseValidator
             return true;
         }
 
+        String err = checkPayload(payBuf);
+        if (err != null) {
+            LOG.error(err + " in " + payBuf);
+            foundInvalid = true;
+            return false;
+        }
+
+        final int type = payBuf.getInt(4);
+        if (!needsDecode(type, payBuf.getLong(8),
+                         getStreamKey(payBuf, type)))
+        {
+            return true;
+        }
+
         if (factory == null) {
             factory = new PayloadFactory(new MockBufferCache("Validator"));
         }
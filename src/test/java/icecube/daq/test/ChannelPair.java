@@ -0,0 +1,139 @@
+package icecube.daq.test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The two ends of a one-way link, either a pipe or a loopback socket
+ * (or, for emulated links, the outer ends of two pipes joined by a bridge).
+ */
+public class ChannelPair
+{
+    private WritableByteChannel sink;
+    private SelectableChannel source;
+
+    ChannelPair(WritableByteChannel sink, SelectableChannel source)
+    {
+        this.sink = sink;
+        this.source = source;
+    }
+
+    /**
+     * Close both ends of the link, ignoring any errors.
+     */
+    public void close()
+    {
+        try {
+            sink.close();
+        } catch (IOException ioe) {
+            // ignore errors on close
+        }
+        try {
+            source.close();
+        } catch (IOException ioe) {
+            // ignore errors on close
+        }
+    }
+
+    /**
+     * Open a pipe.
+     *
+     * @return new pipe-backed pair
+     *
+     * @throws IOException if the pipe cannot be opened
+     */
+    public static ChannelPair openPipe()
+        throws IOException
+    {
+        Pipe pipe = Pipe.open();
+        return new ChannelPair(pipe.sink(), pipe.source());
+    }
+
+    /**
+     * Open a loopback TCP connection.  The client end is the sink and the
+     * accepted end is the source.
+     *
+     * @param settings socket options to apply to both ends
+     *
+     * @return new socket-backed pair
+     *
+     * @throws IOException if the connection cannot be made
+     */
+    public static ChannelPair openSocket(SocketSettings settings)
+        throws IOException
+    {
+        MinimalServer server = new MinimalServer();
+        try {
+            if (settings.getReceiveBufferSize() > 0) {
+                // must be set before accepting to allow large TCP windows
+                server.setReceiveBufferSize(settings.getReceiveBufferSize());
+            }
+
+            SocketChannel client = SocketChannel.open();
+            SocketChannel accepted = null;
+            boolean connected = false;
+            try {
+                settings.apply(client.socket());
+                InetSocketAddress addr =
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                          server.getPort());
+                client.connect(addr);
+
+                accepted = server.acceptChannel();
+                settings.apply(accepted.socket());
+
+                connected = true;
+                return new ChannelPair(client, accepted);
+            } finally {
+                if (!connected) {
+                    // don't leak either end of a half-built link
+                    try {
+                        client.close();
+                    } catch (IOException ioe) {
+                        // ignore errors on close
+                    }
+                    if (accepted != null) {
+                        try {
+                            accepted.close();
+                        } catch (IOException ioe) {
+                            // ignore errors on close
+                        }
+                    }
+                }
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Get the reading end of the link.
+     *
+     * @return source channel
+     */
+    public SelectableChannel source()
+    {
+        return source;
+    }
+
+    /**
+     * Get the writing end of the link.
+     *
+     * @return sink channel
+     */
+    public WritableByteChannel sink()
+    {
+        return sink;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ChannelPair[" + sink + "->" + source + "]";
+    }
+}
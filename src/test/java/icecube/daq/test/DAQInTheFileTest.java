@@ -61,6 +61,7 @@ public class DAQInTheFileTest
             shComps[num].forceRandomMode();
             shComps[num].start(false);
             shInput[num] = new DomHitFileBridge(shMap.get(srcId), shComps[num]);
+            shInput[num].setMemoryMapped(true);
             num++;
         }
 
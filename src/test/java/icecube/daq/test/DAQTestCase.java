@@ -28,8 +28,6 @@ import icecube.daq.util.LocatePDAQ;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.channels.Pipe;
-import java.nio.channels.SelectableChannel;
 import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
@@ -57,7 +55,7 @@ public abstract class DAQTestCase
     private GlobalTriggerComponent gtComp;
     private EBComponent ebComp;
     private MinimalServer minServer;
-    private List<Pipe> pipeList;
+    private List<ChannelPair> linkList;
     private WritableByteChannel amTail;
 
     public DAQTestCase(String name)
@@ -90,14 +88,13 @@ public abstract class DAQTestCase
         }
     }
 
-    private static List<Pipe> connectHubsAndEB(StringHubComponent[] shComps,
-                                               TriggerComponent itComp,
-                                               TriggerComponent iiComp,
-                                               EBComponent ebComp,
-                                               PayloadValidator validator)
+    private static List<ChannelPair>
+        connectHubsAndEB(StringHubComponent[] shComps,
+                         TriggerComponent itComp, TriggerComponent iiComp,
+                         EBComponent ebComp, PayloadValidator validator)
         throws DAQCompException, IOException
     {
-        List<Pipe> pipeList = new ArrayList<Pipe>();
+        List<ChannelPair> linkList = new ArrayList<ChannelPair>();
 
         // connect SH hit to triggers
         for (int n = 0; n < 2; n++) {
@@ -125,16 +122,15 @@ public abstract class DAQTestCase
                     (!connectInIce &&
                      SourceIdRegistry.isIcetopHubSourceID(srcId)))
                 {
-                    Pipe pipe =
-                        DAQTestUtil.connectToReader(hitRdr, cache);
-                    ((SelectableChannel) pipe.sink()).configureBlocking(false);
+                    ChannelPair link =
+                        DAQTestUtil.openLink("hub#" + srcId, hitRdr, cache);
 
                     DAQComponentOutputProcess outProc =
                         shComps[i].getHitWriter();
-                    outProc.addDataChannel(pipe.sink(), shComps[i].getCache(),
+                    outProc.addDataChannel(link.sink(), shComps[i].getCache(),
                                            "hub#" + srcId);
 
-                    pipeList.add(pipe);
+                    linkList.add(link);
                 }
             }
         }
@@ -143,13 +139,13 @@ public abstract class DAQTestCase
         DAQSourceIdOutputProcess dest = ebComp.getRequestWriter();
         for (int i = 0; i < shComps.length; i++) {
             DAQStreamReader rdr = shComps[i].getRequestReader();
-            Pipe pipe =
-                DAQTestUtil.connectToReader(rdr, shComps[i].getCache());
-            ((SelectableChannel) pipe.sink()).configureBlocking(false);
+            ChannelPair link =
+                DAQTestUtil.openLink("EB->SH#" + shComps[i].getHubId(), rdr,
+                                     shComps[i].getCache());
 
-            dest.addDataChannel(pipe.sink(),
+            dest.addDataChannel(link.sink(),
                                 new MockSourceID(shComps[i].getHubId()));
-            pipeList.add(pipe);
+            linkList.add(link);
         }
 
         // connect SH data to EB
@@ -165,7 +161,7 @@ public abstract class DAQTestCase
                                        ebComp.getDataCache());
         }
 
-        return pipeList;
+        return linkList;
     }
 
     abstract int getNumberOfExpectedEvents();
@@ -373,6 +369,7 @@ public abstract class DAQTestCase
         super.setUp();
 
         DAQTestUtil.clearCachedChannels();
+        HarnessThreads.resetStatistics();
 
         BasicConfigurator.resetConfiguration();
         BasicConfigurator.configure(appender);
@@ -426,10 +423,9 @@ public abstract class DAQTestCase
             DAQTestUtil.removeDispatchedFiles(DISPATCH_DEST);
         }
 
-        if (pipeList != null) {
-            for (Pipe pipe : pipeList) {
-                try { pipe.sink().close(); } catch (Exception ex) { }
-                try { pipe.source().close(); } catch (Exception ex) { }
+        if (linkList != null) {
+            for (ChannelPair link : linkList) {
+                link.close();
             }
         }
 
@@ -441,6 +437,8 @@ public abstract class DAQTestCase
 
         System.clearProperty(LocatePDAQ.CONFIG_DIR_PROPERTY);
 
+        DAQTestUtil.reportValidators(getName());
+
         super.tearDown();
     }
 
@@ -451,6 +449,8 @@ public abstract class DAQTestCase
         final boolean dumpActivity = false;
         final boolean dumpSplicers = false;
         final boolean dumpBEStats = false;
+        final boolean dumpThreadStats = false;
+        final boolean dumpLinkStats = false;
 
         final int numEvents = getNumberOfExpectedEvents();
 
@@ -573,7 +573,7 @@ public abstract class DAQTestCase
         }
 
         // finish setup
-        pipeList =
+        linkList =
             connectHubsAndEB(shComps, itComp, iiComp, ebComp, validator);
 
         DAQTestUtil.startComponentIO(ebComp, gtComp, itComp, iiComp, shComps,
@@ -597,6 +597,14 @@ public abstract class DAQTestCase
                                dumpSplicers);
         if (dumpBEStats) activity.dumpBackEndStats();
 
+        if (dumpThreadStats) {
+            System.err.println("Threads " + HarnessThreads.getReport());
+        }
+
+        if (dumpLinkStats) {
+            DAQTestUtil.dumpLinkStatistics();
+        }
+
         if (false) {
             if (iiComp != null) System.err.println("II " + iiComp);
             if (itComp != null) System.err.println("IT " + itComp);
@@ -21,8 +21,12 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.Pipe;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
 import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 
 import junit.framework.Assert;
 
@@ -83,6 +87,40 @@ public final class DAQTestUtil
 
     private static ByteBuffer stopMsg;
 
+    private static LinkTransport transport = LinkTransport.getDefault();
+    private static SocketSettings sockSettings = SocketSettings.getDefault();
+    private static int ringCapacity = 1024 * 1024;
+    private static int queueCapacity = 1024;
+    private static IByteBufferCache bridgeCache;
+
+    private static ArrayList<QueuedBridge> queuedBridges =
+        new ArrayList<QueuedBridge>();
+
+    /** If <tt>true</tt>, links hand their validators to a worker pool */
+    private static boolean asyncValidation =
+        Boolean.getBoolean(AsyncValidator.PROPERTY);
+    private static IdentityHashMap<PayloadValidator, AsyncValidator>
+        asyncValidators =
+        new IdentityHashMap<PayloadValidator, AsyncValidator>();
+    /** If <tt>true</tt>, link validators are wrapped to count their work */
+    private static boolean instrumentValidators =
+        Boolean.getBoolean(InstrumentedValidator.REPORT_PROPERTY);
+    /** Counters for each validator attached to a link */
+    private static IdentityHashMap<PayloadValidator, InstrumentedValidator>
+        instrumentedValidators =
+        new IdentityHashMap<PayloadValidator, InstrumentedValidator>();
+    /** If non-negative, link validators only check this fraction */
+    private static double sampleFraction =
+        SamplingValidator.getPropertyFraction();
+    /** Sampling wrapper for each validator attached to a link */
+    private static IdentityHashMap<PayloadValidator, SamplingValidator>
+        samplingValidators =
+        new IdentityHashMap<PayloadValidator, SamplingValidator>();
+
+    private static HashMap<String, LinkProfile> linkProfiles =
+        new HashMap<String, LinkProfile>();
+    private static LinkProfile defaultProfile;
+
     public static ArrayList<ChannelData> chanData =
         new ArrayList<ChannelData>();
 
@@ -282,9 +320,25 @@ public final class DAQTestUtil
                      comp.getPayloadsSent() - 1);
     }
 
+    /**
+     * Forget all link profiles, including the default profile.
+     */
+    public static void clearLinkProfiles()
+    {
+        linkProfiles.clear();
+        defaultProfile = null;
+    }
+
     public static final void clearCachedChannels()
     {
         chanData.clear();
+        queuedBridges.clear();
+
+        Error err = waitForValidators();
+        forgetValidators();
+        if (err != null) {
+            throw err;
+        }
     }
 
     public static final void closePipeList(Pipe[] list)
@@ -329,7 +383,8 @@ public final class DAQTestUtil
         }
 
         PayloadSink consumer = new PayloadSink(name, srcOut);
-        consumer.setValidator(validator);
+        consumer.setValidator(getLinkValidator(validator));
+        consumer.setBufferCache(bridgeCache);
         consumer.start();
 
         return consumer;
@@ -368,6 +423,35 @@ public final class DAQTestUtil
         return chanList;
     }
 
+    /**
+     * Create the bridge thread used by <tt>BRIDGE</tt>, <tt>QUEUED</tt>
+     * and <tt>RING</tt> links.  A queued bridge is used for <tt>QUEUED</tt>
+     * links and for any link with a profile.
+     */
+    private static PayloadFileBridge createBridge(String name,
+                                                  ReadableByteChannel chanIn,
+                                                  WritableByteChannel chanOut,
+                                                  PayloadValidator validator)
+    {
+        final LinkProfile profile = getLinkProfile(name);
+
+        PayloadFileBridge bridge;
+        if (transport != LinkTransport.QUEUED && profile == null) {
+            bridge = new PayloadFileBridge(name, chanIn, chanOut);
+        } else {
+            QueuedBridge qBridge =
+                new QueuedBridge(name, chanIn, chanOut, queueCapacity);
+            qBridge.setProfile(profile);
+            queuedBridges.add(qBridge);
+            bridge = qBridge;
+        }
+
+        bridge.setValidator(validator);
+        bridge.setBufferCache(bridgeCache);
+
+        return bridge;
+    }
+
     public static void destroyComponentIO(EBComponent ebComp,
                                           GlobalTriggerComponent gtComp,
                                           IcetopTriggerComponent itComp,
@@ -401,6 +485,189 @@ public final class DAQTestUtil
         }
     }
 
+    /**
+     * Print the queue statistics for all <tt>QUEUED</tt> and emulated links.
+     */
+    public static void dumpLinkStatistics()
+    {
+        for (QueuedBridge bridge : queuedBridges) {
+            System.err.println(bridge.getStatistics());
+        }
+    }
+
+    /**
+     * Print the lag statistics for all asynchronous validators.
+     */
+    public static void dumpValidationStatistics()
+    {
+        synchronized (asyncValidators) {
+            for (AsyncValidator validator : asyncValidators.values()) {
+                System.err.println(validator.getStatistics());
+            }
+        }
+    }
+
+    /**
+     * Print the work done by each validator attached to a link.
+     */
+    public static void dumpValidatorReport()
+    {
+        synchronized (asyncValidators) {
+            for (InstrumentedValidator validator :
+                     instrumentedValidators.values())
+            {
+                System.err.println(validator.getStatistics());
+            }
+        }
+    }
+
+    /**
+     * Print the sampling coverage of each validator attached to a link.
+     */
+    public static void dumpSamplingReport()
+    {
+        synchronized (asyncValidators) {
+            for (SamplingValidator validator : samplingValidators.values()) {
+                System.err.println(validator + ":");
+                System.err.println(validator.getStatistics());
+            }
+        }
+    }
+
+    /**
+     * Check a validator used by links created by this class, waiting for
+     * any asynchronous validation to finish first.
+     *
+     * @param validator validator passed to <tt>glueComponents()</tt> or
+     *                  <tt>connectToSink()</tt>
+     *
+     * @return <tt>true</tt> if any payload was invalid
+     */
+    public static boolean foundInvalid(PayloadValidator validator)
+    {
+        AsyncValidator async;
+        SamplingValidator sampling;
+        synchronized (asyncValidators) {
+            async = asyncValidators.get(validator);
+            sampling = samplingValidators.get(validator);
+        }
+
+        if (async != null) {
+            return async.foundInvalid();
+        } else if (sampling != null) {
+            return sampling.foundInvalid();
+        }
+
+        return validator.foundInvalid();
+    }
+
+    /**
+     * Forget all link validators so the next test starts with fresh
+     * counters.
+     */
+    private static void forgetValidators()
+    {
+        synchronized (asyncValidators) {
+            asyncValidators.clear();
+            instrumentedValidators.clear();
+            samplingValidators.clear();
+        }
+    }
+
+    /**
+     * Get the validator to attach to a link.  When sampling is enabled,
+     * every link sharing a validator shares one <tt>SamplingValidator</tt>
+     * so the sample covers all of that validator's payloads.  When
+     * instrumentation is enabled, every link sharing a validator shares one
+     * <tt>InstrumentedValidator</tt>, so the counters cover all of the
+     * validator's work.  When asynchronous validation is enabled, the
+     * validator is also wrapped in a shared <tt>AsyncValidator</tt> so it
+     * still sees one payload at a time.
+     *
+     * @param validator validator supplied by the test (may be
+     *                  <tt>null</tt>)
+     *
+     * @return validator for the link
+     */
+    private static PayloadValidator getLinkValidator(PayloadValidator
+                                                     validator)
+    {
+        if (validator == null) {
+            return null;
+        }
+
+        synchronized (asyncValidators) {
+            PayloadValidator linkVal = validator;
+            if (sampleFraction >= 0.0) {
+                SamplingValidator sampling =
+                    samplingValidators.get(validator);
+                if (sampling == null) {
+                    sampling = new SamplingValidator(validator,
+                                                     sampleFraction);
+                    samplingValidators.put(validator, sampling);
+                }
+
+                linkVal = sampling;
+            }
+
+            if (instrumentValidators) {
+                InstrumentedValidator counted =
+                    instrumentedValidators.get(validator);
+                if (counted == null) {
+                    counted = new InstrumentedValidator(linkVal);
+                    instrumentedValidators.put(validator, counted);
+                }
+
+                linkVal = counted;
+            }
+
+            if (!asyncValidation) {
+                return linkVal;
+            }
+
+            AsyncValidator async = asyncValidators.get(validator);
+            if (async == null) {
+                async = new AsyncValidator(linkVal);
+                asyncValidators.put(validator, async);
+            }
+
+            return async;
+        }
+    }
+
+    /**
+     * Get the profile for a link.
+     *
+     * @param name link name
+     *
+     * @return link profile (<tt>null</tt> if the link isn't emulated)
+     */
+    private static LinkProfile getLinkProfile(String name)
+    {
+        LinkProfile profile = linkProfiles.get(name);
+        if (profile == null) {
+            profile = defaultProfile;
+        }
+
+        return profile;
+    }
+
+    public static LinkTransport getLinkTransport()
+    {
+        return transport;
+    }
+
+    /**
+     * Get the bridges created for <tt>QUEUED</tt> links since the last call
+     * to <tt>clearCachedChannels()</tt>.
+     *
+     * @return list of queued bridges
+     */
+    public static List<QueuedBridge> getQueuedBridges()
+    {
+        return queuedBridges;
+    }
+
     public static void glueComponents(String name,
                                       DAQComponentOutputProcess out,
                                       IByteBufferCache outCache,
@@ -408,6 +675,70 @@ public final class DAQTestUtil
                                       DAQStreamReader in,
                                       IByteBufferCache inCache)
         throws IOException
+    {
+        LinkTransport linkType = transport;
+        if (getLinkProfile(name) != null &&
+            (linkType == LinkTransport.DIRECT ||
+             linkType == LinkTransport.SOCKET))
+        {
+            // emulated links need a bridge thread
+            linkType = LinkTransport.BRIDGE;
+        }
+
+        PayloadValidator linkVal = getLinkValidator(validator);
+
+        switch (linkType) {
+        case BRIDGE:
+        case QUEUED:
+            glueWithBridge(name, out, outCache, linkVal, in, inCache);
+            break;
+        case DIRECT:
+        case SOCKET:
+            glueDirect(name, out, outCache, linkVal, in, inCache);
+            break;
+        case RING:
+            glueWithRing(name, out, outCache, linkVal, in, inCache);
+            break;
+        default:
+            throw new Error("Unknown link transport " + transport);
+        }
+    }
+
+    /**
+     * Connect the output process directly to the reader with a single link.
+     * If a validator is specified, it sees each payload as it is written.
+     */
+    private static void glueDirect(String name, DAQComponentOutputProcess out,
+                                   IByteBufferCache outCache,
+                                   PayloadValidator validator,
+                                   DAQStreamReader in,
+                                   IByteBufferCache inCache)
+        throws IOException
+    {
+        ChannelPair link = openLink(name, in, inCache);
+
+        WritableByteChannel chanOut;
+        if (validator == null) {
+            chanOut = link.sink();
+        } else {
+            chanOut = new TapChannel(name, link.sink(), validator);
+        }
+
+        out.addDataChannel(chanOut, outCache, name + "*GLUE");
+    }
+
+    /**
+     * Connect the output process to the reader with a pair of pipes and
+     * a bridge thread which copies payloads between them.  <tt>QUEUED</tt>
+     * links pass the payloads through a bounded queue.
+     */
+    private static void glueWithBridge(String name,
+                                       DAQComponentOutputProcess out,
+                                       IByteBufferCache outCache,
+                                       PayloadValidator validator,
+                                       DAQStreamReader in,
+                                       IByteBufferCache inCache)
+        throws IOException
     {
         final boolean startOut = false;
         final boolean startIn = false;
@@ -444,8 +775,50 @@ public final class DAQTestUtil
             startIOProcess(in);
         }
 
-        PayloadFileBridge bridge = new PayloadFileBridge(name, srcOut, sinkIn);
-        bridge.setValidator(validator);
+        PayloadFileBridge bridge =
+            createBridge(name, srcOut, sinkIn, validator);
+        bridge.start();
+    }
+
+    /**
+     * Connect the output process to a memory-mapped ring buffer which is
+     * drained into the reader's pipe by a bridge thread.
+     */
+    private static void glueWithRing(String name,
+                                     DAQComponentOutputProcess out,
+                                     IByteBufferCache outCache,
+                                     PayloadValidator validator,
+                                     DAQStreamReader in,
+                                     IByteBufferCache inCache)
+        throws IOException
+    {
+        File ringFile = File.createTempFile("ring-", ".dat");
+        ringFile.deleteOnExit();
+
+        MappedRing ring = MappedRing.create(ringFile, ringCapacity);
+
+        WritableByteChannel ringOut = ring.writer();
+        chanData.add(new ChannelData(name + "*RING", ringOut));
+
+        out.addDataChannel(ringOut, outCache, name + "*GLUE");
+
+        ReadableByteChannel ringIn = ring.reader();
+        chanData.add(new ChannelData(name + "*RING", ringIn));
+
+        Pipe inPipe = Pipe.open();
+
+        Pipe.SinkChannel sinkIn = inPipe.sink();
+        chanData.add(new ChannelData(name + "*IN", sinkIn));
+        sinkIn.configureBlocking(true);
+
+        Pipe.SourceChannel srcIn = inPipe.source();
+        chanData.add(new ChannelData(name + "*IN", srcIn));
+        srcIn.configureBlocking(false);
+
+        in.addDataChannel(srcIn, "ringChan", inCache, 1024);
+
+        PayloadFileBridge bridge =
+            createBridge(name, ringIn, sinkIn, validator);
         bridge.start();
     }
 
@@ -467,6 +840,79 @@ public final class DAQTestUtil
         }
     }
 
+    /**
+     * Open a link to <tt>rdr</tt> using the current link transport.
+     * The sink is left in non-blocking mode, ready to be handed to an
+     * output process.
+     *
+     * @param name link name
+     * @param rdr reader which will consume data from the link
+     * @param cache reader's buffer cache
+     *
+     * @return new link
+     */
+    public static ChannelPair openLink(String name, DAQStreamReader rdr,
+                                       IByteBufferCache cache)
+        throws IOException
+    {
+        if (getLinkProfile(name) != null) {
+            return openEmulatedLink(name, rdr, cache);
+        }
+
+        ChannelPair link;
+        if (transport == LinkTransport.SOCKET) {
+            link = ChannelPair.openSocket(sockSettings);
+        } else {
+            link = ChannelPair.openPipe();
+        }
+
+        chanData.add(new ChannelData(name + "*OUT", link.sink()));
+        ((SelectableChannel) link.sink()).configureBlocking(false);
+
+        chanData.add(new ChannelData(name + "*IN", link.source()));
+        link.source().configureBlocking(false);
+
+        rdr.addDataChannel(link.source(), name, cache, 1024);
+
+        return link;
+    }
+
+    /**
+     * Open a link made of two pipes joined by a queued bridge which
+     * applies the link's profile.
+     */
+    private static ChannelPair openEmulatedLink(String name,
+                                                DAQStreamReader rdr,
+                                                IByteBufferCache cache)
+        throws IOException
+    {
+        Pipe outPipe = Pipe.open();
+
+        Pipe.SinkChannel sinkOut = outPipe.sink();
+        chanData.add(new ChannelData(name + "*OUT", sinkOut));
+        sinkOut.configureBlocking(false);
+
+        Pipe.SourceChannel srcOut = outPipe.source();
+        chanData.add(new ChannelData(name + "*OUT", srcOut));
+        srcOut.configureBlocking(true);
+
+        Pipe inPipe = Pipe.open();
+
+        Pipe.SinkChannel sinkIn = inPipe.sink();
+        chanData.add(new ChannelData(name + "*IN", sinkIn));
+        sinkIn.configureBlocking(true);
+
+        Pipe.SourceChannel srcIn = inPipe.source();
+        chanData.add(new ChannelData(name + "*IN", srcIn));
+        srcIn.configureBlocking(false);
+
+        rdr.addDataChannel(srcIn, name, cache, 1024);
+
+        createBridge(name, srcOut, sinkIn, null).start();
+
+        return new ChannelPair(sinkOut, srcIn);
+    }
+
     public static void removeDispatchedFiles(String destDir)
     {
         File dir = new File(destDir);
@@ -520,6 +966,184 @@ public final class DAQTestUtil
         }
     }
 
+    /**
+     * Emulate network conditions on every link which doesn't have its
+     * own profile.
+     *
+     * @param profile default profile (<tt>null</tt> to leave links alone)
+     */
+    public static void setDefaultLinkProfile(LinkProfile profile)
+    {
+        defaultProfile = profile;
+    }
+
+    /**
+     * Emulate network conditions on links created after this call by
+     * <tt>glueComponents()</tt> or <tt>openLink()</tt> with this name
+     * (e.g. <tt>"SH#21->EB"</tt> or <tt>"hub#12021"</tt>).
+     *
+     * @param name link name
+     * @param profile link profile (<tt>null</tt> to remove the profile)
+     */
+    public static void setLinkProfile(String name, LinkProfile profile)
+    {
+        if (profile == null) {
+            linkProfiles.remove(name);
+        } else {
+            linkProfiles.put(name, profile);
+        }
+    }
+
+    /**
+     * Choose how subsequent calls to <tt>glueComponents()</tt> will connect
+     * output processes to readers.
+     *
+     * @param newTransport link transport
+     */
+    public static void setLinkTransport(LinkTransport newTransport)
+    {
+        if (newTransport == null) {
+            throw new Error("Link transport cannot be null");
+        }
+
+        transport = newTransport;
+    }
+
+    /**
+     * Called from a test's <tt>tearDown()</tt>.  Wait for asynchronous
+     * validation to finish and, if validator instrumentation or sampling
+     * is enabled, print the work done by each link validator and the
+     * fraction of payloads it checked, then forget the
+     * validators so the next test starts with fresh counters.
+     * Any exception thrown by an asynchronous validator is rethrown
+     * after the validators are forgotten.
+     *
+     * @param testName name of the test which just finished
+     */
+    public static void reportValidators(String testName)
+    {
+        Error err = waitForValidators();
+
+        if (instrumentValidators) {
+            synchronized (asyncValidators) {
+                if (!instrumentedValidators.isEmpty()) {
+                    System.err.println("Validators for " + testName + ":");
+                    dumpValidatorReport();
+                }
+            }
+        }
+
+        synchronized (asyncValidators) {
+            if (!samplingValidators.isEmpty()) {
+                System.err.println("Sampled validators for " + testName +
+                                   ":");
+                dumpSamplingReport();
+            }
+        }
+
+        forgetValidators();
+        if (err != null) {
+            throw err;
+        }
+    }
+
+    /**
+     * Choose whether links created after this call validate payloads on
+     * their own threads or hand them to a pool of validation threads.
+     * Asynchronous validation is off unless the
+     * <tt>icecube.daq.test.asyncValidation</tt> system property is set.
+     *
+     * @param async <tt>true</tt> to validate asynchronously
+     */
+    public static void setAsyncValidation(boolean async)
+    {
+        asyncValidation = async;
+    }
+
+    /**
+     * Choose whether validators attached to links created after this call
+     * count their work for the report printed by
+     * <tt>reportValidators()</tt>.  Instrumentation is off unless the
+     * <tt>icecube.daq.test.validatorReport</tt> system property is set.
+     *
+     * @param instrument <tt>true</tt> to instrument link validators
+     */
+    public static void setValidatorInstrumentation(boolean instrument)
+    {
+        instrumentValidators = instrument;
+    }
+
+    /**
+     * Choose whether validators attached to links created after this call
+     * check every payload or only a sample of them.  The sampling
+     * coverage is printed by <tt>reportValidators()</tt>.  Sampling is
+     * off unless the <tt>icecube.daq.test.validation.sample</tt> system
+     * property holds a fraction.
+     *
+     * @param fraction fraction of payloads to validate (negative to
+     *                 validate every payload)
+     */
+    public static void setValidatorSampling(double fraction)
+    {
+        sampleFraction = fraction;
+    }
+
+    /**
+     * Have the bridges and sinks created by this class read their input
+     * into buffers leased from <tt>cache</tt> rather than allocating a
+     * new buffer for each payload.
+     *
+     * @param cache thread-safe buffer cache (<tt>null</tt> to allocate)
+     */
+    public static void setBridgeBufferCache(IByteBufferCache cache)
+    {
+        bridgeCache = cache;
+    }
+
+    /**
+     * Set the number of payloads which can wait in each <tt>QUEUED</tt>
+     * link.
+     *
+     * @param capacity queue capacity
+     */
+    public static void setQueueCapacity(int capacity)
+    {
+        if (capacity < 1) {
+            throw new Error("Bad queue capacity " + capacity);
+        }
+
+        queueCapacity = capacity;
+    }
+
+    /**
+     * Set the size of the ring buffers used by <tt>RING</tt> links.
+     *
+     * @param capacity number of data bytes (must be a power of two)
+     */
+    public static void setRingCapacity(int capacity)
+    {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new Error("Ring capacity " + capacity +
+                            " is not a power of two");
+        }
+
+        ringCapacity = capacity;
+    }
+
+    /**
+     * Set the socket options used by <tt>SOCKET</tt> links.
+     *
+     * @param settings socket settings
+     */
+    public static void setSocketSettings(SocketSettings settings)
+    {
+        if (settings == null) {
+            throw new Error("Socket settings cannot be null");
+        }
+
+        sockSettings = settings;
+    }
+
     public static void startComponentIO(EBComponent ebComp,
                                         GlobalTriggerComponent gtComp,
                                         IcetopTriggerComponent itComp,
@@ -600,6 +1224,32 @@ public final class DAQTestUtil
                    ", not Running after StartSig", proc.isRunning());
     }
 
+    /**
+     * Wait for every asynchronous validator to finish its queued payloads.
+     *
+     * @return first exception thrown by a validator, or <tt>null</tt>
+     */
+    private static Error waitForValidators()
+    {
+        List<AsyncValidator> list;
+        synchronized (asyncValidators) {
+            list = new ArrayList<AsyncValidator>(asyncValidators.values());
+        }
+
+        Error err = null;
+        for (AsyncValidator async : list) {
+            try {
+                async.waitForIdle();
+            } catch (Error e) {
+                if (err == null) {
+                    err = e;
+                }
+            }
+        }
+
+        return err;
+    }
+
     public static final void waitUntilStopped(DAQComponentIOProcess proc,
                                               Splicer splicer,
                                               String action)
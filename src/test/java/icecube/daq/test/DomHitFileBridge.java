@@ -63,6 +63,12 @@ public class DomHitFileBridge
             buf.getLong(24) == Long.MAX_VALUE;
     }
 
+    @Override
+    int getUTCOffset()
+    {
+        return UTCPacer.DOM_HIT_OFFSET;
+    }
+
     int getHubNumber()
     {
         return hubNum;
@@ -76,9 +82,6 @@ public class DomHitFileBridge
     @Override
     void write(ByteBuffer buf) throws IOException
     {
-        // don't overwhelm other threads
-        Thread.yield();
-
         sender.getHitInput().consume(buf);
     }
 }
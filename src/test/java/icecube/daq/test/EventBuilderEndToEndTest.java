@@ -120,7 +120,7 @@ public class EventBuilderEndToEndTest
         }
     }
 
-    private List<HitData> getHitList(IDOMRegistry domRegistry)
+    private HitStore getHitList(IDOMRegistry domRegistry)
         throws DOMRegistryException
     {
         final long firstTime = TIME_BASE;
@@ -129,12 +129,7 @@ public class EventBuilderEndToEndTest
         final int numHits = NUM_TRIGGERS * 10;
         final long hitStep = timeRange / (long) numHits;
 
-        ArrayList<HitData> list = new ArrayList<HitData>();
-
-        HitData.setDefaultTriggerType(0);
-        HitData.setDefaultConfigId(0);
-        HitData.setDefaultTriggerMode(0);
-        HitData.setDOMRegistry(domRegistry);
+        HitStore hits = new HitStore(domRegistry, 0, 0, 0, numHits);
 
         ArrayList<DOMInfo> realDOMs = new ArrayList<DOMInfo>();
         for (DOMInfo dom : domRegistry.allDOMs()) {
@@ -155,20 +150,20 @@ public class EventBuilderEndToEndTest
         long time = TIME_BASE;
         for (int i = 0; i < numHits; i++) {
             long domId = domIdList[i % domIdList.length];
-            list.add(new HitData(time, SIMHUB_ID + (i % NUM_HUBS), domId));
+            hits.add(time, SIMHUB_ID + (i % NUM_HUBS), domId);
 
             time += hitStep;
         }
 
-        return list;
+        return hits;
     }
 
-    private static List<ISourceID> getSourceIds(List<HitData> hitList)
+    private static List<ISourceID> getSourceIds(HitStore hits)
     {
         HashMap<ISourceID, ISourceID> map = new HashMap<ISourceID, ISourceID>();
 
-        for (HitData hd : hitList) {
-            MockSourceID newSrc = new MockSourceID(hd.getSourceID());
+        for (int h = 0; h < hits.size(); h++) {
+            MockSourceID newSrc = new MockSourceID(hits.getSourceID(h));
 
             if (!map.containsKey(newSrc)) {
                 map.put(newSrc, newSrc);
@@ -332,7 +327,7 @@ public class EventBuilderEndToEndTest
         }
 
         // get list of all hits
-        List<HitData> hitList = getHitList(domRegistry);
+        HitStore hits = getHitList(domRegistry);
 
         // set up event builder
         EBComponent comp = new EBComponent();
@@ -352,7 +347,7 @@ public class EventBuilderEndToEndTest
 
         RequestToDataBridge.createLinks(comp.getRequestWriter(), null,
                                         comp.getDataReader(),
-                                        comp.getDataCache(), hitList);
+                                        comp.getDataCache(), hits);
 
         DAQTestUtil.startComponentIO(comp, null, null, null, null, RUN_NUMBER,
                                      IComponent.DOMMODE_NORMAL);
@@ -398,7 +393,7 @@ public class EventBuilderEndToEndTest
             throw new Error("Cannot load DOM registry", ex);
         }
 
-        List<HitData> hitList = getHitList(domRegistry);
+        HitStore hits = getHitList(domRegistry);
 
         EBComponent comp = new EBComponent();
         comp.setValidateEvents(true);
@@ -417,7 +412,7 @@ public class EventBuilderEndToEndTest
 
         RequestToDataBridge.createLinks(comp.getRequestWriter(), null,
                                         comp.getDataReader(),
-                                        comp.getDataCache(), hitList);
+                                        comp.getDataCache(), hits);
 
         DAQTestUtil.startComponentIO(comp, null, null, null, null,
                                      RUN_NUMBER, IComponent.DOMMODE_NORMAL);
@@ -3,19 +3,132 @@ package icecube.daq.test;
 import java.io.IOException;
 import java.io.File;
 import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 
 public abstract class FileBridge
     extends PayloadConsumer
 {
+    /** Largest piece of a file which is mapped at one time */
+    private static final long MAX_WINDOW = 1024L * 1024L * 1024L;
+
+    private FileChannel fileChan;
+
+    private boolean mapped;
+    /** File length, read when the file is first mapped */
+    private long fileLen = -1L;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long nextOffset;
+
     public FileBridge(File dataFile)
         throws IOException
     {
-        super(dataFile.toString(), new FileInputStream(dataFile).getChannel());
+        this(dataFile.toString(), new FileInputStream(dataFile).getChannel());
     }
 
     FileBridge(String inputName, ReadableByteChannel chanIn)
     {
         super(inputName, chanIn);
+
+        if (chanIn instanceof FileChannel) {
+            fileChan = (FileChannel) chanIn;
+        }
+    }
+
+    /**
+     * Map the piece of the file starting at <tt>offset</tt>.
+     *
+     * @param offset file offset
+     */
+    private void mapWindow(long offset)
+    {
+        final long len = Math.min(MAX_WINDOW, fileLen - offset);
+        try {
+            window = fileChan.map(FileChannel.MapMode.READ_ONLY, offset, len);
+        } catch (IOException ioe) {
+            throw new Error("Couldn't map " + len + " bytes at " + offset +
+                            " from " + toString(), ioe);
+        }
+        windowStart = offset;
+    }
+
+    /**
+     * Return the next payload as a read-only slice of the mapped file.
+     *
+     * @return next payload, or <tt>null</tt> at end of file
+     */
+    private ByteBuffer readMapped()
+    {
+        if (fileLen < 0) {
+            try {
+                fileLen = fileChan.size();
+            } catch (IOException ioe) {
+                throw new Error("Couldn't get size of " + toString(), ioe);
+            }
+        }
+
+        if (nextOffset + 4 > fileLen) {
+            return null;
+        }
+
+        if (window == null || nextOffset + 4 > windowStart + window.limit()) {
+            mapWindow(nextOffset);
+        }
+
+        int pos = (int) (nextOffset - windowStart);
+
+        final int len = window.getInt(pos);
+        if (len < 4) {
+            throw new Error("Bad length " + len);
+        } else if (len > MAX_WINDOW) {
+            throw new Error("Payload length " + len + " exceeds map size");
+        } else if (nextOffset + len > fileLen) {
+            // ignore truncated payload at end of file
+            return null;
+        }
+
+        if (pos + len > window.limit()) {
+            mapWindow(nextOffset);
+            pos = 0;
+        }
+
+        ByteBuffer dup = window.duplicate();
+        dup.limit(pos + len);
+        dup.position(pos);
+
+        nextOffset += len;
+
+        return dup.slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    ByteBuffer readPayload(ByteBuffer lenBuf)
+    {
+        if (mapped) {
+            return readMapped();
+        }
+
+        return super.readPayload(lenBuf);
+    }
+
+    /**
+     * Map the input file into memory and hand out read-only slices of it
+     * rather than reading each payload into a buffer.
+     *
+     * @param mapped <tt>true</tt> to map the file
+     */
+    void setMemoryMapped(boolean mapped)
+    {
+        if (mapped && fileChan == null) {
+            throw new Error(toString() + " is not reading from a file");
+        } else if (isRunning()) {
+            throw new Error("Cannot change mapping while " + toString() +
+                            " is running");
+        }
+
+        this.mapped = mapped;
     }
 }
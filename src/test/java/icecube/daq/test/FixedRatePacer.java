@@ -0,0 +1,63 @@
+package icecube.daq.test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Send payloads at a fixed rate.  If the sender falls behind it catches
+ * up by sending without waiting until it is back on schedule.
+ */
+public class FixedRatePacer
+    implements Pacer
+{
+    private double rate;
+    private long interval;
+
+    private long startTime;
+    private long numPaced;
+
+    /**
+     * Create a fixed-rate pacer.
+     *
+     * @param rate number of payloads per second
+     */
+    public FixedRatePacer(double rate)
+    {
+        if (rate <= 0.0) {
+            throw new Error("Bad payload rate " + rate);
+        }
+
+        this.rate = rate;
+        this.interval = (long) (1000000000.0 / rate);
+    }
+
+    @Override
+    public void pace(ByteBuffer buf)
+    {
+        final long now = System.nanoTime();
+        if (numPaced++ == 0) {
+            startTime = now;
+            return;
+        }
+
+        final long target = startTime + (numPaced - 1) * interval;
+
+        long remaining = target - now;
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            remaining = target - System.nanoTime();
+        }
+    }
+
+    @Override
+    public void reset()
+    {
+        numPaced = 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "FixedRatePacer[" + rate + "/s]";
+    }
+}
@@ -186,6 +186,8 @@ public class GlobalTriggerPhysicsDataTest
     {
         super.setUp();
 
+        HarnessThreads.resetStatistics();
+
         BasicConfigurator.resetConfiguration();
         BasicConfigurator.configure(appender);
     }
@@ -209,6 +211,8 @@ public class GlobalTriggerPhysicsDataTest
             System.clearProperty(LocatePDAQ.CONFIG_DIR_PROPERTY);
         }
 
+        DAQTestUtil.reportValidators(getName());
+
         super.tearDown();
     }
 
@@ -325,12 +329,19 @@ public class GlobalTriggerPhysicsDataTest
                 System.out.println(prod[i].getName() + " wrote " +
                                    prod[i].getNumberWritten());
             }
+            System.out.println("Threads " + HarnessThreads.getReport());
         }
 
         assertEquals("Unexpected number of global triggers",
                      expEvents, comp.getPayloadsSent() - 1);
 
-        assertFalse("Found invalid payload(s)", validator.foundInvalid());
+        assertFalse("Found invalid payload(s)",
+                    DAQTestUtil.foundInvalid(validator));
+
+        final boolean dumpTriggerStats = false;
+        if (dumpTriggerStats) {
+            System.err.println(validator.getStatistics().getSummary());
+        }
 
         DAQTestUtil.destroyComponentIO(null, comp, null, null, null);
 
@@ -473,7 +484,7 @@ public class GlobalTriggerPhysicsDataTest
         private Logger LOG = Logger.getLogger(PayloadProducer.class);
 
         private String name;
-        private Thread thread;
+        private volatile boolean running;
         private int numWritten;
 
         PayloadProducer(String name)
@@ -499,7 +510,7 @@ public class GlobalTriggerPhysicsDataTest
 
         public boolean isRunning()
         {
-            return thread != null;
+            return running;
         }
 
         @Override
@@ -540,16 +551,15 @@ public class GlobalTriggerPhysicsDataTest
 
             finishThreadCleanup();
 
-            thread = null;
+            running = false;
         }
 
         public void start()
         {
             numWritten = 0;
 
-            thread = new Thread(this);
-            thread.setName(name);
-            thread.start();
+            running = true;
+            HarnessThreads.start(name, this);
         }
 
         abstract void write(ByteBuffer buf)
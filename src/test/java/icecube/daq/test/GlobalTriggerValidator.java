@@ -14,11 +14,25 @@ class GlobalTriggerValidator
     private long prevFirstTime = Long.MIN_VALUE;
     private long prevLastTime = Long.MIN_VALUE;
 
+    private TriggerStreamStats stats = new TriggerStreamStats();
+
+    /**
+     * Get the statistics for all the triggers seen by this validator.
+     *
+     * @return trigger stream statistics
+     */
+    TriggerStreamStats getStatistics()
+    {
+        return stats;
+    }
+
     @Override
     boolean validateTrigger(ITriggerRequestPayload tr)
     {
         super.validateTrigger(tr);
 
+        stats.add(tr);
+
         IUTCTime firstTime = tr.getFirstTimeUTC();
         IUTCTime lastTime = tr.getLastTimeUTC();
 
@@ -0,0 +1,347 @@
+package icecube.daq.test;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Start the harness's bridge and producer loops on platform threads,
+ * virtual threads or a bounded pool, and keep track of how long each loop
+ * waited to be scheduled and how long it ran.
+ */
+public final class HarnessThreads
+{
+    /** System property holding the number of threads in the pool */
+    public static final String POOL_SIZE_PROPERTY =
+        "icecube.daq.test.threads.poolSize";
+
+    /** Default number of threads used in <tt>POOLED</tt> mode */
+    public static final int DEFAULT_POOL_SIZE = 256;
+
+    /** How long a new loop waits for a pool thread to become idle */
+    private static final long HANDOFF_MILLIS = 100L;
+
+    private static ThreadMode mode = ThreadMode.getDefault();
+    private static int poolSize =
+        Integer.getInteger(POOL_SIZE_PROPERTY, DEFAULT_POOL_SIZE);
+
+    private static ExecutorService pool;
+    private static ThreadFactory virtualFactory;
+
+    private static int numStarted;
+    private static int numFinished;
+    private static long totalStartNanos;
+    private static long maxStartNanos;
+    private static long totalRunNanos;
+    private static long firstStart;
+    private static long lastFinish;
+
+    private HarnessThreads()
+    {
+    }
+
+    /**
+     * Record a loop which has been scheduled.
+     *
+     * @param queued time at which the loop was submitted
+     * @param begin time at which the loop started running
+     */
+    private static synchronized void recordBegin(long queued, long begin)
+    {
+        final long delay = begin - queued;
+
+        totalStartNanos += delay;
+        if (delay > maxStartNanos) {
+            maxStartNanos = delay;
+        }
+    }
+
+    /**
+     * Record a loop which has finished.
+     *
+     * @param begin time at which the loop started running
+     * @param end time at which the loop finished
+     */
+    private static synchronized void recordEnd(long begin, long end)
+    {
+        numFinished++;
+        totalRunNanos += end - begin;
+        if (end > lastFinish) {
+            lastFinish = end;
+        }
+    }
+
+    /**
+     * Build a thread factory for virtual threads.
+     *
+     * @return virtual thread factory
+     */
+    private static ThreadFactory createVirtualFactory()
+    {
+        // use reflection so the harness still compiles before Java 21
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+
+            Class<?> bldrClass = Class.forName("java.lang.Thread$Builder");
+            Method factory = bldrClass.getMethod("factory");
+
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (NoSuchMethodException nsme) {
+            throw new Error("Virtual threads need Java 21 or later");
+        } catch (Exception ex) {
+            throw new Error("Cannot create virtual thread factory", ex);
+        }
+    }
+
+    /**
+     * Get the current thread mode.
+     *
+     * @return thread mode
+     */
+    public static ThreadMode getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * Get a summary of the loops started since the last reset.
+     *
+     * @return report
+     */
+    public static synchronized String getReport()
+    {
+        StringBuilder buf = new StringBuilder();
+        buf.append(mode);
+        if (mode == ThreadMode.POOLED) {
+            buf.append('(').append(poolSize).append(')');
+        }
+
+        buf.append(": ").append(numStarted).append(" started, ").
+            append(numFinished).append(" finished");
+
+        if (numStarted > 0) {
+            buf.append(", start latency avg ").
+                append(totalStartNanos / numStarted / 1000).
+                append("us max ").append(maxStartNanos / 1000).append("us");
+        }
+
+        if (numFinished > 0) {
+            buf.append(", run time avg ").
+                append(totalRunNanos / numFinished / 1000000).
+                append("ms, wall ").
+                append((lastFinish - firstStart) / 1000000).append("ms");
+        }
+
+        return buf.toString();
+    }
+
+    /**
+     * Clear all statistics.
+     */
+    public static synchronized void resetStatistics()
+    {
+        numStarted = 0;
+        numFinished = 0;
+        totalStartNanos = 0;
+        maxStartNanos = 0;
+        totalRunNanos = 0;
+        firstStart = 0;
+        lastFinish = 0;
+    }
+
+    /**
+     * Set the thread mode used for loops started after this call.
+     *
+     * @param newMode new thread mode
+     */
+    public static synchronized void setMode(ThreadMode newMode)
+    {
+        if (newMode == null) {
+            throw new Error("Thread mode cannot be null");
+        }
+
+        mode = newMode;
+    }
+
+    /**
+     * Set the number of threads used in <tt>POOLED</tt> mode.
+     *
+     * @param size number of pool threads
+     */
+    public static synchronized void setPoolSize(int size)
+    {
+        if (size < 1) {
+            throw new Error("Bad pool size " + size);
+        }
+
+        if (pool != null && size != poolSize) {
+            pool.shutdown();
+            pool = null;
+        }
+
+        poolSize = size;
+    }
+
+    /**
+     * Run a loop using the current thread mode.
+     *
+     * @param name name given to the thread running the loop
+     * @param runnable loop
+     */
+    public static void start(String name, Runnable runnable)
+    {
+        TimedTask task;
+        ExecutorService execPool = null;
+
+        synchronized (HarnessThreads.class) {
+            final long queued = System.nanoTime();
+            if (numStarted++ == 0) {
+                firstStart = queued;
+            }
+
+            task = new TimedTask(name, runnable, queued);
+
+            switch (mode) {
+            case PLATFORM:
+                Thread thread = new Thread(task);
+                thread.setName(name);
+                thread.start();
+                break;
+            case VIRTUAL:
+                if (virtualFactory == null) {
+                    virtualFactory = createVirtualFactory();
+                }
+
+                Thread vthread = virtualFactory.newThread(task);
+                vthread.setName(name);
+                vthread.start();
+                break;
+            case POOLED:
+                if (pool == null) {
+                    // loops never wait in a queue; a loop which can't get
+                    // a thread is refused rather than left waiting forever
+                    pool = new ThreadPoolExecutor(poolSize, poolSize, 0L,
+                        TimeUnit.MILLISECONDS,
+                        new SynchronousQueue<Runnable>(),
+                        new PoolThreadFactory("HarnessPool"),
+                        new PoolFullHandler());
+                }
+
+                execPool = pool;
+                break;
+            default:
+                throw new Error("Unknown thread mode " + mode);
+            }
+        }
+
+        // hand off outside the lock, since finishing loops need it
+        if (execPool != null) {
+            try {
+                execPool.execute(task);
+            } catch (Error err) {
+                synchronized (HarnessThreads.class) {
+                    numStarted--;
+                }
+                throw err;
+            }
+        }
+    }
+
+    /**
+     * Refuse a loop when every pool thread is still running another loop.
+     * The loop gets a moment to be handed to a thread which has just
+     * finished its previous loop.
+     */
+    static class PoolFullHandler
+        implements RejectedExecutionHandler
+    {
+        @Override
+        public void rejectedExecution(Runnable runnable,
+                                      ThreadPoolExecutor executor)
+        {
+            if (executor.isShutdown()) {
+                throw new Error("Harness pool has been shut down");
+            }
+
+            try {
+                if (executor.getQueue().offer(runnable, HANDOFF_MILLIS,
+                                              TimeUnit.MILLISECONDS))
+                {
+                    return;
+                }
+            } catch (InterruptedException ie) {
+                throw new Error("Interrupted while starting harness loop",
+                                ie);
+            }
+
+            throw new Error("All " + executor.getMaximumPoolSize() +
+                            " harness pool threads are busy; set " +
+                            POOL_SIZE_PROPERTY + " to run more loops");
+        }
+    }
+
+    /**
+     * Daemon threads for fixed-size pools.
+     */
+    static class PoolThreadFactory
+        implements ThreadFactory
+    {
+        private String prefix;
+        private int num;
+
+        PoolThreadFactory(String prefix)
+        {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public synchronized Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, prefix + "#" + num++);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Wrap a loop so its scheduling delay and run time are recorded.
+     */
+    static class TimedTask
+        implements Runnable
+    {
+        private String name;
+        private Runnable runnable;
+        private long queued;
+
+        TimedTask(String name, Runnable runnable, long queued)
+        {
+            this.name = name;
+            this.runnable = runnable;
+            this.queued = queued;
+        }
+
+        @Override
+        public void run()
+        {
+            final long begin = System.nanoTime();
+            recordBegin(queued, begin);
+
+            // pool threads take on the name of the loop while running it
+            final Thread cur = Thread.currentThread();
+            final String oldName = cur.getName();
+            cur.setName(name);
+
+            try {
+                runnable.run();
+            } finally {
+                cur.setName(oldName);
+                recordEnd(begin, System.nanoTime());
+            }
+        }
+    }
+}
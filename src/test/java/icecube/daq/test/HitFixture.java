@@ -0,0 +1,494 @@
+package icecube.daq.test;
+
+import icecube.daq.payload.PayloadRegistry;
+import icecube.daq.payload.SourceIdRegistry;
+import icecube.daq.util.DOMRegistryFactory;
+import icecube.daq.util.IDOMRegistry;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Compact binary hit files.  A fixture starts with a header holding the
+ * number of hits and dictionaries of the source IDs and DOM IDs used.
+ * The header is followed by one record per hit, holding:
+ * <ul>
+ * <li>the zigzag-encoded change in time from the previous hit</li>
+ * <li>the source dictionary index</li>
+ * <li>the DOM dictionary index</li>
+ * <li>the trigger mode</li>
+ * </ul>
+ * The first three are variable-length integers, so most hits take a
+ * handful of bytes.
+ * <p>
+ * Run <tt>main()</tt> to convert captured hub streams (or generated hits)
+ * into a fixture.
+ */
+public final class HitFixture
+{
+    /** Marks a hit fixture ("HITF") */
+    private static final int MAGIC = 0x48495446;
+    /** Current format version */
+    private static final int VERSION = 1;
+
+    /** In-ice hits captured from the hubs in <tt>raw_data</tt> */
+    static final String IN_ICE_HITS = "fixtures/in-ice-hits.hits";
+
+    private HitFixture()
+    {
+    }
+
+    /**
+     * Read a variable-length integer.
+     *
+     * @param buf buffer
+     *
+     * @return value
+     */
+    private static long getVarLong(ByteBuffer buf)
+    {
+        long val = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = buf.get();
+            val |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return val;
+            }
+        }
+
+        throw new Error("Bad variable-length integer at " +
+                        (buf.position() - 1));
+    }
+
+    /**
+     * Find a fixture on the test classpath.  A fixture inside a jar file
+     * is copied to a temporary file so it can be mapped.
+     *
+     * @param name resource name
+     *
+     * @return fixture file
+     *
+     * @throws IOException if a fixture in a jar file cannot be copied
+     */
+    static File findResource(String name)
+        throws IOException
+    {
+        URL url = HitFixture.class.getResource("/" + name);
+        if (url == null) {
+            throw new Error("Cannot find hit fixture \"" + name + "\"");
+        }
+
+        if (url.getProtocol().equals("file")) {
+            try {
+                // decodes escaped characters such as spaces in the path
+                return new File(url.toURI());
+            } catch (URISyntaxException use) {
+                throw new Error("Bad URL " + url + " for hit fixture \"" +
+                                name + "\"", use);
+            }
+        }
+
+        File tmpFile = File.createTempFile("fixture-", ".hits");
+        tmpFile.deleteOnExit();
+
+        InputStream in = url.openStream();
+        try {
+            Files.copy(in, tmpFile.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            in.close();
+        }
+
+        return tmpFile;
+    }
+
+    /**
+     * Load a fixture into a new hit store.
+     *
+     * @param file fixture file
+     * @param domRegistry DOM registry
+     * @param trigType trigger type of every hit
+     * @param cfgId configuration ID of every hit
+     * @param trigMode trigger mode of hits added later without one
+     *
+     * @return hits
+     *
+     * @throws IOException if the file cannot be read
+     */
+    static HitStore load(File file, IDOMRegistry domRegistry, int trigType,
+                         int cfgId, int trigMode)
+        throws IOException
+    {
+        return load(file, domRegistry, trigType, cfgId, trigMode,
+                    Integer.MAX_VALUE);
+    }
+
+    /**
+     * Load the first <tt>maxHits</tt> hits from a fixture into a new hit
+     * store.
+     *
+     * @param file fixture file
+     * @param domRegistry DOM registry
+     * @param trigType trigger type of every hit
+     * @param cfgId configuration ID of every hit
+     * @param trigMode trigger mode of hits added later without one
+     * @param maxHits maximum number of hits to load
+     *
+     * @return hits
+     *
+     * @throws IOException if the file cannot be read
+     */
+    static HitStore load(File file, IDOMRegistry domRegistry, int trigType,
+                         int cfgId, int trigMode, int maxHits)
+        throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel chan = raf.getChannel();
+            MappedByteBuffer buf =
+                chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size());
+
+            if (buf.getInt() != MAGIC) {
+                throw new Error(file + " is not a hit fixture");
+            }
+
+            final int version = buf.getInt();
+            if (version != VERSION) {
+                throw new Error("Unsupported version " + version + " for " +
+                                file);
+            }
+
+            final int numHits = Math.min(buf.getInt(), maxHits);
+
+            int[] srcIds = new int[buf.getInt()];
+            for (int i = 0; i < srcIds.length; i++) {
+                srcIds[i] = buf.getInt();
+            }
+
+            long[] domIds = new long[buf.getInt()];
+            for (int i = 0; i < domIds.length; i++) {
+                domIds[i] = buf.getLong();
+            }
+
+            HitStore hits = new HitStore(domRegistry, trigType, cfgId,
+                                         trigMode, Math.max(1, numHits));
+
+            short[] chanIds = new short[domIds.length];
+            for (int i = 0; i < domIds.length; i++) {
+                chanIds[i] = hits.lookupChannelId(domIds[i]);
+            }
+
+            long time = buf.getLong();
+            for (int i = 0; i < numHits; i++) {
+                final long zigzag = getVarLong(buf);
+                time += (zigzag >>> 1) ^ -(zigzag & 1);
+
+                final int src = (int) getVarLong(buf);
+                final int dom = (int) getVarLong(buf);
+                final int mode = buf.get();
+
+                hits.add(time, srcIds[src], domIds[dom], chanIds[dom], mode);
+            }
+
+            if (numHits < maxHits && buf.hasRemaining()) {
+                throw new Error("Found " + buf.remaining() +
+                                " extra bytes at the end of " + file);
+            }
+
+            return hits;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Add every hit from a captured hub stream to a hit store.  Simple
+     * hits and expanded hits carry their own source ID; raw delta hits
+     * are assigned <tt>srcId</tt>.
+     *
+     * @param file hub stream
+     * @param srcId source ID for hits which don't include one
+     * @param hits hit store
+     *
+     * @return number of hits added
+     *
+     * @throws IOException if the file cannot be read
+     */
+    static int readHubStream(File file, int srcId, HitStore hits)
+        throws IOException
+    {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel chan = in.getChannel();
+            MappedByteBuffer buf =
+                chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size());
+
+            int num = 0;
+            while (buf.remaining() >= 8) {
+                final int start = buf.position();
+                final int len = buf.getInt(start);
+                final int type = buf.getInt(start + 4);
+
+                if (len == 4) {
+                    // stop message
+                    break;
+                } else if (len < 8 || len > buf.remaining()) {
+                    throw new Error("Bad " + len + "-byte payload at " +
+                                    start + " in " + file);
+                }
+
+                if (type == PayloadRegistry.PAYLOAD_ID_DELTA_HIT) {
+                    final long domId = buf.getLong(start + 8);
+                    final long time = buf.getLong(start + 24);
+                    final int word0 = buf.getInt(start + 46);
+                    hits.add(time, srcId, domId, word0 >>> 18);
+                } else if (type == PayloadRegistry.PAYLOAD_ID_SIMPLE_HIT) {
+                    hits.add(buf.getLong(start + 8), buf.getInt(start + 24),
+                             buf.getLong(start + 28), buf.getShort(start + 36));
+                } else if (type ==
+                           PayloadRegistry.PAYLOAD_ID_COMPRESSED_HIT_DATA)
+                {
+                    final int word0 = buf.getInt(start + 50);
+                    hits.add(buf.getLong(start + 8), buf.getInt(start + 24),
+                             buf.getLong(start + 28), word0 >>> 18);
+                } else {
+                    throw new Error("Unknown payload type " + type + " at " +
+                                    start + " in " + file);
+                }
+
+                buf.position(start + len);
+                num++;
+            }
+
+            return num;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Copy hits into a new store in time order.  Hits with the same time
+     * keep their original order.
+     *
+     * @param hits unsorted hits
+     * @param domRegistry DOM registry
+     *
+     * @return sorted hits
+     */
+    private static HitStore sortByTime(final HitStore hits,
+                                       IDOMRegistry domRegistry)
+    {
+        Integer[] order = new Integer[hits.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b)
+                {
+                    return Long.compare(hits.getTime(a), hits.getTime(b));
+                }
+            });
+
+        HitStore sorted = new HitStore(domRegistry, 2, 0, 2,
+                                       Math.max(1, order.length));
+        for (Integer idx : order) {
+            sorted.add(hits.getTime(idx), hits.getSourceID(idx),
+                       hits.getDOMID(idx), hits.getChannelID(idx),
+                       hits.getTriggerMode(idx));
+        }
+
+        return sorted;
+    }
+
+    /**
+     * Write a variable-length integer.
+     *
+     * @param out output stream
+     * @param val value
+     *
+     * @throws IOException if the write fails
+     */
+    private static void putVarLong(DataOutputStream out, long val)
+        throws IOException
+    {
+        while ((val & ~0x7fL) != 0) {
+            out.write((int) (val & 0x7f) | 0x80);
+            val >>>= 7;
+        }
+        out.write((int) val);
+    }
+
+    /**
+     * Write all the hits in a hit store to a fixture.
+     *
+     * @param hits hit store
+     * @param file fixture file
+     *
+     * @throws IOException if the file cannot be written
+     */
+    static void write(HitStore hits, File file)
+        throws IOException
+    {
+        final int numHits = hits.size();
+
+        HashMap<Integer, Integer> srcMap = new HashMap<Integer, Integer>();
+        ArrayList<Integer> srcList = new ArrayList<Integer>();
+        HashMap<Long, Integer> domMap = new HashMap<Long, Integer>();
+        ArrayList<Long> domList = new ArrayList<Long>();
+
+        for (int i = 0; i < numHits; i++) {
+            if (!srcMap.containsKey(hits.getSourceID(i))) {
+                srcMap.put(hits.getSourceID(i), srcList.size());
+                srcList.add(hits.getSourceID(i));
+            }
+            if (!domMap.containsKey(hits.getDOMID(i))) {
+                domMap.put(hits.getDOMID(i), domList.size());
+                domList.add(hits.getDOMID(i));
+            }
+        }
+
+        DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(new
+                FileOutputStream(file), 65536));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(numHits);
+
+            out.writeInt(srcList.size());
+            for (Integer srcId : srcList) {
+                out.writeInt(srcId);
+            }
+
+            out.writeInt(domList.size());
+            for (Long domId : domList) {
+                out.writeLong(domId);
+            }
+
+            long prevTime = numHits == 0 ? 0L : hits.getTime(0);
+            out.writeLong(prevTime);
+
+            for (int i = 0; i < numHits; i++) {
+                final long delta = hits.getTime(i) - prevTime;
+                prevTime = hits.getTime(i);
+
+                final int mode = hits.getTriggerMode(i);
+                if (mode < Byte.MIN_VALUE || mode > Byte.MAX_VALUE) {
+                    throw new Error("Cannot store trigger mode " + mode);
+                }
+
+                putVarLong(out, (delta << 1) ^ (delta >> 63));
+                putVarLong(out, srcMap.get(hits.getSourceID(i)));
+                putVarLong(out, domMap.get(hits.getDOMID(i)));
+                out.write(mode);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Print a usage message and exit.
+     */
+    private static void usage()
+    {
+        System.err.println("Usage: HitFixture [-c configDir] out.hits" +
+                           " hubFile ...");
+        System.err.println("       HitFixture [-c configDir] -g seconds" +
+                           " [-s seed] out.hits");
+        System.err.println("Hub files named \"...#NN\" are assigned to" +
+                           " hub NN; hits from all files are merged in" +
+                           " time order");
+        System.exit(1);
+    }
+
+    /**
+     * Convert captured hub streams, or generated hits, into a fixture.
+     *
+     * @param args command-line arguments
+     */
+    public static void main(String[] args)
+        throws Exception
+    {
+        String cfgDir = "src/test/resources/config";
+        double seconds = 0.0;
+        long seed = 0L;
+
+        int idx = 0;
+        while (idx < args.length && args[idx].startsWith("-")) {
+            if (idx + 1 >= args.length) {
+                usage();
+            } else if (args[idx].equals("-c")) {
+                cfgDir = args[idx + 1];
+            } else if (args[idx].equals("-g")) {
+                seconds = Double.parseDouble(args[idx + 1]);
+            } else if (args[idx].equals("-s")) {
+                seed = Long.parseLong(args[idx + 1]);
+            } else {
+                usage();
+            }
+            idx += 2;
+        }
+
+        if (idx >= args.length || (seconds <= 0.0 && idx + 1 >= args.length))
+        {
+            usage();
+        }
+
+        IDOMRegistry domRegistry = DOMRegistryFactory.load(cfgDir);
+
+        File outFile = new File(args[idx++]);
+
+        final long startNanos = System.nanoTime();
+
+        HitStore hits;
+        if (seconds > 0.0) {
+            HitGenerator gen = new HitGenerator(domRegistry, seed);
+            hits = gen.newStore(1024);
+            HitGenerator.fill(gen.openAll(), hits, (long)
+                              (seconds * HitGenerator.TICKS_PER_SECOND));
+        } else {
+            hits = new HitStore(domRegistry, 2, 0, 2);
+            for (; idx < args.length; idx++) {
+                File inFile = new File(args[idx]);
+
+                int srcId = -1;
+                final int hashIdx = inFile.getName().lastIndexOf('#');
+                if (hashIdx >= 0) {
+                    srcId = SourceIdRegistry.STRING_HUB_SOURCE_ID +
+                        Integer.parseInt(inFile.getName().
+                                         substring(hashIdx + 1));
+                }
+
+                readHubStream(inFile, srcId, hits);
+            }
+
+            hits = sortByTime(hits, domRegistry);
+        }
+
+        write(hits, outFile);
+
+        System.out.println("Wrote " + hits.size() + " hits to " + outFile +
+                           " (" + outFile.length() + " bytes) in " +
+                           (System.nanoTime() - startNanos) / 1000000 +
+                           " ms");
+    }
+}
@@ -0,0 +1,879 @@
+package icecube.daq.test;
+
+import icecube.daq.payload.SourceIdRegistry;
+import icecube.daq.util.DOMInfo;
+import icecube.daq.util.DOMRegistryException;
+import icecube.daq.util.IDOMRegistry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Repeatable, never-ending stream of simulated hits from every real DOM
+ * in the DOM registry.  Each DOM produces Poisson noise, and every so
+ * often a run of neighbouring DOMs on one string fires together, like a
+ * muon passing by.  Hits are produced lazily, in time order, one stream
+ * per hub, so hours of detector time can be sent without ever holding
+ * more than a chunk of them in memory.
+ */
+public class HitGenerator
+{
+    /** Number of UTC ticks (tenths of a nanosecond) in a second */
+    public static final long TICKS_PER_SECOND = 10000000000L;
+
+    /** Default per-DOM noise rate */
+    public static final double DEFAULT_NOISE_RATE = 500.0;
+    /** Default rate of coincidences across the whole detector */
+    public static final double DEFAULT_COINCIDENCE_RATE = 100.0;
+    /** Default number of DOMs hit in each coincidence */
+    public static final int DEFAULT_MULTIPLICITY = 8;
+
+    /** Time for light to travel between neighbouring DOMs (about 57ns) */
+    private static final long DOM_STEP_TICKS = 570L;
+    /** Largest random delay added to each coincident hit (1us) */
+    private static final int JITTER_TICKS = 10000;
+
+    /** Number of hits encoded and written at a time by a feeder */
+    private static final int FEED_CHUNK = 4096;
+
+    /** Hits this far behind the latest query are dropped by a window */
+    private static final long RETAIN_TICKS = TICKS_PER_SECOND / 10;
+    /** Windows are compacted once this many old hits can be dropped */
+    private static final int MIN_DISCARD = 4096;
+
+    private IDOMRegistry domRegistry;
+    private long seed;
+    private long startTime;
+    private double noiseRate = DEFAULT_NOISE_RATE;
+    private double coincRate = DEFAULT_COINCIDENCE_RATE;
+    private int multiplicity = DEFAULT_MULTIPLICITY;
+
+    private int hitTrigType = 2;
+    private int hitCfgId;
+    private int hitTrigMode = 2;
+
+    /** Hub IDs, in ascending order */
+    private int[] hubIds;
+    /** Mainboard IDs for each hub, sorted by string and position */
+    private long[][] hubDOMs;
+
+    /**
+     * Create a generator for every real DOM in the registry.
+     *
+     * @param domRegistry DOM registry
+     * @param seed random number seed
+     *
+     * @throws DOMRegistryException if the DOMs cannot be listed
+     */
+    public HitGenerator(IDOMRegistry domRegistry, long seed)
+        throws DOMRegistryException
+    {
+        this.domRegistry = domRegistry;
+        this.seed = seed;
+
+        HashMap<Integer, ArrayList<DOMInfo>> hubMap =
+            new HashMap<Integer, ArrayList<DOMInfo>>();
+        for (DOMInfo dom : domRegistry.allDOMs()) {
+            if (!dom.isRealDOM()) {
+                continue;
+            }
+
+            ArrayList<DOMInfo> list = hubMap.get(dom.getHubId());
+            if (list == null) {
+                list = new ArrayList<DOMInfo>();
+                hubMap.put(dom.getHubId(), list);
+            }
+            list.add(dom);
+        }
+
+        if (hubMap.size() == 0) {
+            throw new Error("No real DOMs found in DOM registry");
+        }
+
+        ArrayList<Integer> keys = new ArrayList<Integer>(hubMap.keySet());
+        Collections.sort(keys);
+
+        hubIds = new int[keys.size()];
+        hubDOMs = new long[keys.size()][];
+
+        for (int h = 0; h < hubIds.length; h++) {
+            ArrayList<DOMInfo> list = hubMap.get(keys.get(h));
+            Collections.sort(list, new Comparator<DOMInfo>() {
+                    public int compare(DOMInfo a, DOMInfo b)
+                    {
+                        if (a.getStringMajor() != b.getStringMajor()) {
+                            return a.getStringMajor() - b.getStringMajor();
+                        }
+                        return a.getStringMinor() - b.getStringMinor();
+                    }
+                });
+
+            hubIds[h] = keys.get(h);
+            hubDOMs[h] = new long[list.size()];
+            for (int d = 0; d < hubDOMs[h].length; d++) {
+                hubDOMs[h][d] = list.get(d).getNumericMainboardId();
+            }
+        }
+    }
+
+    /**
+     * Append all hits from every hub which occur before <tt>endTime</tt>
+     * to <tt>store</tt>, in time order.
+     *
+     * @param streams hub streams (usually from <tt>openAll()</tt>)
+     * @param store hit store
+     * @param endTime first time which will not be added
+     *
+     * @return number of hits added
+     */
+    public static int fill(HubStream[] streams, HitStore store, long endTime)
+    {
+        // binary heap of streams ordered by the time of their next hit
+        final int len = streams.length;
+        HubStream[] heap = streams.clone();
+        long[] keys = new long[len];
+        for (int i = 0; i < len; i++) {
+            keys[i] = heap[i].peekTime();
+        }
+        for (int i = len / 2 - 1; i >= 0; i--) {
+            siftDown(heap, keys, i);
+        }
+
+        int num = 0;
+        while (len > 0 && keys[0] < endTime) {
+            heap[0].addNext(store);
+            num++;
+
+            keys[0] = heap[0].peekTime();
+            siftDown(heap, keys, 0);
+        }
+
+        return num;
+    }
+
+    /**
+     * Generate each hub's hits on its own thread and write them to that
+     * hub's channel as simple hits.  Each hub's hits depend only on the
+     * seed and the hub ID, so the output doesn't change with the number
+     * of threads or the order in which they run.
+     *
+     * @param sinks map from hub source ID to output channel
+     * @param endTime first time which will not be sent
+     *
+     * @return handle used to wait for the feeders to finish
+     */
+    public Feed feed(Map<Integer, WritableByteChannel> sinks, long endTime)
+    {
+        HashMap<Integer, HubStream> streams = new HashMap<Integer, HubStream>();
+        for (HubStream strm : openAll()) {
+            streams.put(strm.getSourceID(), strm);
+        }
+
+        for (Integer srcId : sinks.keySet()) {
+            if (!streams.containsKey(srcId)) {
+                throw new Error("No DOMs found for source " + srcId);
+            }
+        }
+
+        Feed feed = new Feed(sinks.size());
+        for (Map.Entry<Integer, WritableByteChannel> entry :
+                 sinks.entrySet())
+        {
+            HubFeeder feeder = new HubFeeder(streams.get(entry.getKey()),
+                                             entry.getValue(), endTime, feed);
+            HarnessThreads.start("HitFeed#" + entry.getKey(), feeder);
+        }
+
+        return feed;
+    }
+
+    /**
+     * Get the hub IDs for which hits are generated.
+     *
+     * @return hub IDs
+     */
+    public int[] getHubIds()
+    {
+        return hubIds.clone();
+    }
+
+    /**
+     * Get the total number of DOMs producing hits.
+     *
+     * @return number of DOMs
+     */
+    public int getNumberOfDOMs()
+    {
+        int num = 0;
+        for (int h = 0; h < hubDOMs.length; h++) {
+            num += hubDOMs[h].length;
+        }
+        return num;
+    }
+
+    /**
+     * Get a stream for each hub.
+     *
+     * @return hub streams, in hub ID order
+     */
+    public HubStream[] openAll()
+    {
+        HubStream[] streams = new HubStream[hubIds.length];
+        for (int h = 0; h < hubIds.length; h++) {
+            streams[h] = new HubStream(h);
+        }
+        return streams;
+    }
+
+    /**
+     * Get the stream of hits for a single hub.  Streams are independent,
+     * and a hub's stream is the same no matter which other hubs are read.
+     *
+     * @param hubId hub ID
+     *
+     * @return hub stream
+     */
+    public HubStream openHub(int hubId)
+    {
+        final int idx = Arrays.binarySearch(hubIds, hubId);
+        if (idx < 0) {
+            throw new Error("No DOMs found for hub " + hubId);
+        }
+
+        return new HubStream(idx);
+    }
+
+    /**
+     * Get a window which answers time-range queries for a single hub by
+     * replaying the hub's stream, so readout requests can be answered
+     * without keeping the whole run in memory.
+     *
+     * @param hubId hub ID
+     * @param endTime first time which will not be returned (the end of
+     *                the hits sent by <tt>feed()</tt>)
+     *
+     * @return hub window
+     */
+    public HubWindow openWindow(int hubId, long endTime)
+    {
+        return new HubWindow(hubId, endTime);
+    }
+
+    /**
+     * Derive a well-mixed seed for a single hub so neighbouring hubs get
+     * unrelated streams (this is the SplitMix64 finalizer).
+     *
+     * @param seed generator seed
+     * @param hubId hub ID
+     *
+     * @return hub seed
+     */
+    static long mixSeed(long seed, int hubId)
+    {
+        long z = seed + (hubId + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Create an empty hit store for this generator's hits.
+     *
+     * @param capacity expected number of hits
+     *
+     * @return new hit store
+     */
+    public HitStore newStore(int capacity)
+    {
+        return new HitStore(domRegistry, hitTrigType, hitCfgId, hitTrigMode,
+                            capacity);
+    }
+
+    /**
+     * Set the rate of coincidences across the whole detector.
+     *
+     * @param hz coincidences per second (<tt>0</tt> for noise only)
+     */
+    public void setCoincidenceRate(double hz)
+    {
+        if (hz < 0.0) {
+            throw new Error("Bad coincidence rate " + hz);
+        }
+
+        coincRate = hz;
+    }
+
+    /**
+     * Set the trigger type, configuration ID and trigger mode of the hits
+     * written by <tt>feed()</tt> and stored by <tt>newStore()</tt>.
+     *
+     * @param trigType trigger type
+     * @param cfgId configuration ID
+     * @param trigMode trigger mode
+     */
+    public void setHitFields(int trigType, int cfgId, int trigMode)
+    {
+        hitTrigType = trigType;
+        hitCfgId = cfgId;
+        hitTrigMode = trigMode;
+    }
+
+    /**
+     * Set the number of DOMs hit in each coincidence.
+     *
+     * @param num number of DOMs
+     */
+    public void setMultiplicity(int num)
+    {
+        if (num < 1) {
+            throw new Error("Bad coincidence multiplicity " + num);
+        }
+
+        multiplicity = num;
+    }
+
+    /**
+     * Set the per-DOM noise rate.
+     *
+     * @param hz noise hits per second for each DOM
+     */
+    public void setNoiseRate(double hz)
+    {
+        if (hz <= 0.0) {
+            throw new Error("Bad noise rate " + hz);
+        }
+
+        noiseRate = hz;
+    }
+
+    /**
+     * Set the time at which streams opened after this call begin.
+     *
+     * @param utcTime starting UTC time
+     */
+    public void setStartTime(long utcTime)
+    {
+        startTime = utcTime;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "HitGenerator[" + hubIds.length + " hubs, " +
+            getNumberOfDOMs() + " DOMs, noise " + noiseRate + "Hz, coinc " +
+            coincRate + "Hz*" + multiplicity + "]";
+    }
+
+    /**
+     * Move a heap entry down until both its children are later.
+     *
+     * @param heap streams
+     * @param keys next hit time for each stream
+     * @param pos index of the entry to move
+     */
+    private static void siftDown(HubStream[] heap, long[] keys, int pos)
+    {
+        final HubStream strm = heap[pos];
+        final long key = keys[pos];
+
+        while (true) {
+            int child = pos * 2 + 1;
+            if (child >= heap.length) {
+                break;
+            }
+            if (child + 1 < heap.length && keys[child + 1] < keys[child]) {
+                child++;
+            }
+            if (keys[child] >= key) {
+                break;
+            }
+
+            heap[pos] = heap[child];
+            keys[pos] = keys[child];
+            pos = child;
+        }
+
+        heap[pos] = strm;
+        keys[pos] = key;
+    }
+
+    /**
+     * Draw an exponentially distributed gap.
+     *
+     * @param rng random number generator
+     * @param meanTicks mean gap
+     *
+     * @return gap in ticks (at least 1)
+     */
+    private static long nextGap(Random rng, double meanTicks)
+    {
+        final double gap = -Math.log(1.0 - rng.nextDouble()) * meanTicks;
+        return Math.max(1L, (long) gap);
+    }
+
+    /**
+     * Progress of a set of hub feeders.
+     */
+    public static class Feed
+    {
+        private CountDownLatch finished;
+        private long numHits;
+        private Error failure;
+
+        Feed(int numFeeders)
+        {
+            finished = new CountDownLatch(numFeeders);
+        }
+
+        synchronized void addHits(int num)
+        {
+            numHits += num;
+        }
+
+        void feederDone(Error err)
+        {
+            if (err != null) {
+                synchronized (this) {
+                    if (failure == null) {
+                        failure = err;
+                    }
+                }
+            }
+
+            finished.countDown();
+        }
+
+        public synchronized long getNumberOfHits()
+        {
+            return numHits;
+        }
+
+        /**
+         * Wait for every feeder to finish.
+         *
+         * @throws Error if any feeder failed
+         */
+        public void waitForFinish()
+        {
+            try {
+                finished.await();
+            } catch (InterruptedException ie) {
+                throw new Error("Interrupted while waiting for hit feeders",
+                                ie);
+            }
+
+            synchronized (this) {
+                if (failure != null) {
+                    throw new Error("Hit feeder failed", failure);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write one hub's hits to its channel, a chunk at a time.
+     */
+    class HubFeeder
+        implements Runnable
+    {
+        private HubStream strm;
+        private WritableByteChannel chan;
+        private long endTime;
+        private Feed feed;
+
+        HubFeeder(HubStream strm, WritableByteChannel chan, long endTime,
+                  Feed feed)
+        {
+            this.strm = strm;
+            this.chan = chan;
+            this.endTime = endTime;
+            this.feed = feed;
+        }
+
+        @Override
+        public void run()
+        {
+            Error err = null;
+            try {
+                HitStore chunk = newStore(FEED_CHUNK);
+                ByteBuffer buf =
+                    ByteBuffer.allocateDirect(FEED_CHUNK *
+                                              HitStore.SIMPLE_LENGTH);
+
+                while (true) {
+                    chunk.clear();
+                    final int num = strm.fill(chunk, endTime, FEED_CHUNK);
+
+                    buf.clear();
+                    for (int i = 0; i < num; i++) {
+                        chunk.putSimple(i, buf);
+                    }
+                    buf.flip();
+
+                    while (buf.hasRemaining()) {
+                        chan.write(buf);
+                    }
+
+                    feed.addHits(num);
+
+                    if (num < FEED_CHUNK) {
+                        break;
+                    }
+                }
+            } catch (IOException ioe) {
+                err = new Error("Couldn't write hits for " + strm, ioe);
+            } catch (RuntimeException rte) {
+                err = new Error("Couldn't generate hits for " + strm, rte);
+            } catch (Error e) {
+                err = e;
+            } finally {
+                feed.feederDone(err);
+            }
+        }
+    }
+
+    /**
+     * Find the first hit at or after <tt>time</tt>.
+     *
+     * @param store time-ordered hits
+     * @param time time
+     *
+     * @return index of the first hit which is not earlier than
+     *         <tt>time</tt>
+     */
+    private static int lowerBound(HitStore store, long time)
+    {
+        int lo = 0;
+        int hi = store.size();
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (store.getTime(mid) < time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Recent hits from a single hub.  Hits are generated as queries ask
+     * for later times, and hits more than a tenth of a second older than
+     * the latest query are dropped.  A query which reaches back past the
+     * dropped hits restarts the hub's stream from the beginning, so every
+     * query gets the same answer no matter what was asked before it.
+     */
+    public class HubWindow
+    {
+        private int hubId;
+        private int srcId;
+        private long endTime;
+
+        private HubStream strm;
+        private HitStore window;
+        /** Every hit before this time has been dropped */
+        private long keptFrom = Long.MIN_VALUE;
+        private int numRestarts;
+
+        HubWindow(int hubId, long endTime)
+        {
+            this.hubId = hubId;
+            this.endTime = endTime;
+
+            strm = openHub(hubId);
+            srcId = strm.getSourceID();
+            window = newStore(FEED_CHUNK);
+        }
+
+        /**
+         * Drop hits which are too old to be asked for again.
+         *
+         * @param cutoff drop hits before this time
+         */
+        private void discard(long cutoff)
+        {
+            if (cutoff <= keptFrom) {
+                return;
+            }
+
+            final int num = lowerBound(window, cutoff);
+            if (num < MIN_DISCARD || num < window.size() / 2) {
+                // wait until compacting is worth the copy
+                return;
+            }
+
+            HitStore newWindow =
+                newStore(Math.max(FEED_CHUNK, window.size() - num));
+            copy(window, num, window.size(), newWindow);
+
+            window = newWindow;
+            keptFrom = cutoff;
+        }
+
+        /**
+         * Copy a range of hits to another store.
+         */
+        private void copy(HitStore from, int lo, int hi, HitStore to)
+        {
+            for (int i = lo; i < hi; i++) {
+                to.add(from.getTime(i), from.getSourceID(i),
+                       from.getDOMID(i), from.getChannelID(i),
+                       from.getTriggerMode(i));
+            }
+        }
+
+        /**
+         * Get this hub's hits within a time range.
+         *
+         * @param firstTime first time (inclusive)
+         * @param lastTime last time (inclusive)
+         *
+         * @return new store holding the hits, in time order
+         */
+        public synchronized HitStore extract(long firstTime, long lastTime)
+        {
+            final long last = Math.min(lastTime, endTime - 1);
+            if (firstTime > last) {
+                return newStore(1);
+            }
+
+            if (firstTime < keptFrom) {
+                strm = openHub(hubId);
+                window = newStore(FEED_CHUNK);
+                keptFrom = Long.MIN_VALUE;
+                numRestarts++;
+            }
+
+            strm.fill(window, last + 1, Integer.MAX_VALUE);
+
+            final int lo = lowerBound(window, firstTime);
+            final int hi = lowerBound(window, last + 1);
+
+            HitStore found = newStore(Math.max(1, hi - lo));
+            copy(window, lo, hi, found);
+
+            discard(last - RETAIN_TICKS);
+
+            return found;
+        }
+
+        public int getHubId()
+        {
+            return hubId;
+        }
+
+        /**
+         * Get the number of times the stream was restarted because a
+         * query asked for hits which had already been dropped.
+         *
+         * @return number of restarts
+         */
+        public synchronized int getNumberOfRestarts()
+        {
+            return numRestarts;
+        }
+
+        public int getSourceID()
+        {
+            return srcId;
+        }
+
+        @Override
+        public synchronized String toString()
+        {
+            return "HubWindow[" + hubId + " kept " + window.size() + "]";
+        }
+    }
+
+    /**
+     * A coincident hit which has been generated but not yet returned.
+     */
+    static class PendingHit
+        implements Comparable<PendingHit>
+    {
+        long time;
+        long domId;
+
+        PendingHit(long time, long domId)
+        {
+            this.time = time;
+            this.domId = domId;
+        }
+
+        @Override
+        public int compareTo(PendingHit other)
+        {
+            return time < other.time ? -1 : (time > other.time ? 1 : 0);
+        }
+    }
+
+    /**
+     * Time-ordered hits from a single hub.
+     */
+    public class HubStream
+    {
+        private int hubIdx;
+        private int srcId;
+        private long[] doms;
+
+        private Random noiseRng;
+        private double noiseGap;
+        private long noiseTime;
+
+        /**
+         * Every stream replays the whole detector's coincidences from the
+         * same seed and keeps the ones on its own hub.
+         */
+        private Random coincRng;
+        private double coincGap;
+        private long coincTime;
+        private PriorityQueue<PendingHit> pending =
+            new PriorityQueue<PendingHit>();
+
+        /** Cached time of the next hit (<tt>-1</tt> if unknown) */
+        private long nextTime = -1L;
+
+        HubStream(int hubIdx)
+        {
+            this.hubIdx = hubIdx;
+
+            srcId = SourceIdRegistry.STRING_HUB_SOURCE_ID + hubIds[hubIdx];
+            doms = hubDOMs[hubIdx];
+
+            noiseRng = new Random(mixSeed(seed, hubIds[hubIdx]));
+            noiseGap = (double) TICKS_PER_SECOND / (noiseRate * doms.length);
+            noiseTime = startTime + nextGap(noiseRng, noiseGap);
+
+            if (coincRate > 0.0) {
+                coincRng = new Random(seed ^ 0x5DEECE66DL);
+                coincGap = (double) TICKS_PER_SECOND / coincRate;
+                coincTime = startTime + nextGap(coincRng, coincGap);
+            } else {
+                coincTime = Long.MAX_VALUE;
+            }
+        }
+
+        /**
+         * Add the next hit to a hit store.
+         *
+         * @param store hit store
+         */
+        void addNext(HitStore store)
+        {
+            final long time = peekTime();
+            nextTime = -1L;
+
+            if (pending.size() > 0 && pending.peek().time == time) {
+                PendingHit hit = pending.poll();
+                store.add(hit.time, srcId, hit.domId);
+            } else {
+                store.add(noiseTime, srcId,
+                          doms[noiseRng.nextInt(doms.length)]);
+                noiseTime += nextGap(noiseRng, noiseGap);
+            }
+        }
+
+        /**
+         * Generate the hits for every coincidence which starts on or
+         * before <tt>time</tt>.
+         *
+         * @param time latest coincidence time
+         */
+        private void expandCoincidences(long time)
+        {
+            while (coincTime <= time) {
+                // draw the same numbers for every hub
+                final int hub = coincRng.nextInt(hubIds.length);
+                final double where = coincRng.nextDouble();
+
+                final int num = Math.min(multiplicity, doms.length);
+                final int first = (int) (where * (doms.length - num + 1));
+                for (int i = 0; i < multiplicity; i++) {
+                    final int jitter = coincRng.nextInt(JITTER_TICKS);
+                    if (hub == hubIdx && i < num) {
+                        pending.add(new PendingHit(coincTime +
+                                                   i * DOM_STEP_TICKS +
+                                                   jitter, doms[first + i]));
+                    }
+                }
+
+                coincTime += nextGap(coincRng, coincGap);
+            }
+        }
+
+        /**
+         * Append this hub's hits which occur before <tt>endTime</tt> to
+         * <tt>store</tt>.
+         *
+         * @param store hit store
+         * @param endTime first time which will not be added
+         * @param maxHits maximum number of hits to add
+         *
+         * @return number of hits added
+         */
+        public int fill(HitStore store, long endTime, int maxHits)
+        {
+            int num = 0;
+            while (num < maxHits && peekTime() < endTime) {
+                addNext(store);
+                num++;
+            }
+            return num;
+        }
+
+        public int getHubId()
+        {
+            return hubIds[hubIdx];
+        }
+
+        public int getSourceID()
+        {
+            return srcId;
+        }
+
+        /**
+         * Get the time of the next hit.
+         *
+         * @return next hit time
+         */
+        public long peekTime()
+        {
+            if (nextTime >= 0L) {
+                return nextTime;
+            }
+
+            long next = noiseTime;
+            if (pending.size() > 0 && pending.peek().time < next) {
+                next = pending.peek().time;
+            }
+
+            // coincidences never produce hits before their start time
+            if (coincTime <= next) {
+                expandCoincidences(next);
+
+                if (pending.size() > 0 && pending.peek().time < next) {
+                    next = pending.peek().time;
+                }
+            }
+
+            nextTime = next;
+            return next;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "HubStream[" + srcId + "@" + peekTime() + "]";
+        }
+    }
+}
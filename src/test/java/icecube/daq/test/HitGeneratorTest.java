@@ -0,0 +1,120 @@
+package icecube.daq.test;
+
+import icecube.daq.util.DOMRegistryFactory;
+import icecube.daq.util.IDOMRegistry;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ * Check that a hub window answers every query with exactly the hits its
+ * hub's stream produced, however the queries jump around.
+ */
+public class HitGeneratorTest
+    extends TestCase
+{
+    private static final long SEED = 1234567L;
+    private static final long START_TIME = 2421451L;
+    /** Long enough for a window to drop old hits */
+    private static final long END_TIME =
+        START_TIME + HitGenerator.TICKS_PER_SECOND;
+
+    private HitGenerator gen;
+
+    public HitGeneratorTest(String name)
+    {
+        super(name);
+    }
+
+    private static void assertSameHits(String name, HitStore all,
+                                       long firstTime, long lastTime,
+                                       HitStore found)
+    {
+        int num = 0;
+        for (int i = 0; i < all.size(); i++) {
+            final long time = all.getTime(i);
+            if (time < firstTime || time > lastTime) {
+                continue;
+            }
+
+            assertTrue(name + " is missing hits", num < found.size());
+            assertEquals(name + " hit#" + num + " time", time,
+                         found.getTime(num));
+            assertEquals(name + " hit#" + num + " DOM", all.getDOMID(i),
+                         found.getDOMID(num));
+            assertEquals(name + " hit#" + num + " source",
+                         all.getSourceID(i), found.getSourceID(num));
+            num++;
+        }
+
+        assertEquals(name + " has extra hits", num, found.size());
+    }
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        URL url = getClass().getResource("/config");
+        if (url == null) {
+            throw new Error("Cannot find test config directory");
+        }
+
+        IDOMRegistry reg = DOMRegistryFactory.load(new File(url.toURI()).
+                                                   getPath());
+
+        gen = new HitGenerator(reg, SEED);
+        gen.setStartTime(START_TIME);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(HitGeneratorTest.class);
+    }
+
+    public void testWindow()
+    {
+        final int hubId = gen.getHubIds()[0];
+
+        HitStore all = gen.newStore(1024);
+        gen.openHub(hubId).fill(all, END_TIME, Integer.MAX_VALUE);
+        assertTrue("No hits generated", all.size() > 0);
+
+        HitGenerator.HubWindow window = gen.openWindow(hubId, END_TIME);
+
+        // short readout windows, slightly out of order, across the run
+        Random rand = new Random(SEED);
+        final long step = HitGenerator.TICKS_PER_SECOND / 1000;
+        for (long t = START_TIME; t < END_TIME; t += step) {
+            final long first = t - rand.nextInt(100000);
+            final long last = first + rand.nextInt(200000);
+
+            assertSameHits("Query " + first + "-" + last, all, first, last,
+                           window.extract(first, last));
+        }
+        assertEquals("Unexpected restart", 0, window.getNumberOfRestarts());
+
+        // reach back past the hits which have been dropped
+        final long first = START_TIME;
+        final long last = START_TIME + HitGenerator.TICKS_PER_SECOND / 100;
+        assertSameHits("Early query", all, first, last,
+                       window.extract(first, last));
+        assertEquals("Expected a restart", 1, window.getNumberOfRestarts());
+
+        // nothing past the end of the run
+        assertSameHits("Final query", all, END_TIME - step, END_TIME + step,
+                       window.extract(END_TIME - step, END_TIME + step));
+    }
+
+    public static void main(String[] args)
+    {
+        TestRunner.run(suite());
+    }
+}
@@ -0,0 +1,205 @@
+package icecube.daq.test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Per-source index of a hit store, sorted by time, so the hits for a
+ * readout request element can be found with two binary searches instead
+ * of a scan of every hit.
+ */
+class HitIndex
+{
+    private static final int[] NO_HITS = new int[0];
+
+    private HashMap<Integer, SourceIndex> sources =
+        new HashMap<Integer, SourceIndex>();
+
+    /**
+     * Index a hit store.  No hits may be added after it's indexed.
+     *
+     * @param hits hits
+     */
+    HitIndex(HitStore hits)
+    {
+        final int numHits = hits.size();
+
+        HashMap<Integer, int[]> counts = new HashMap<Integer, int[]>();
+        for (int i = 0; i < numHits; i++) {
+            final int srcId = hits.getSourceID(i);
+
+            int[] count = counts.get(srcId);
+            if (count == null) {
+                count = new int[1];
+                counts.put(srcId, count);
+            }
+            count[0]++;
+        }
+
+        for (Integer srcId : counts.keySet()) {
+            sources.put(srcId, new SourceIndex(counts.get(srcId)[0]));
+        }
+
+        for (int i = 0; i < numHits; i++) {
+            sources.get(hits.getSourceID(i)).add(hits.getTime(i), i);
+        }
+
+        for (SourceIndex idx : sources.values()) {
+            idx.sort();
+        }
+    }
+
+    /**
+     * Find the first entry whose time is at least <tt>time</tt>.
+     *
+     * @param times sorted times
+     * @param time target time
+     *
+     * @return index of first entry >= <tt>time</tt>
+     */
+    private static int lowerBound(long[] times, long time)
+    {
+        int lo = 0;
+        int hi = times.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (times[mid] < time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Find the first entry whose time is after <tt>time</tt>.
+     *
+     * @param times sorted times
+     * @param time target time
+     *
+     * @return index of first entry > <tt>time</tt>
+     */
+    private static int upperBound(long[] times, long time)
+    {
+        int lo = 0;
+        int hi = times.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (times[mid] <= time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Get all hits from a source within a time range, in the order in
+     * which they were added to the store.
+     *
+     * @param srcId source ID
+     * @param firstTime first time (inclusive)
+     * @param lastTime last time (inclusive)
+     *
+     * @return store indices of the hits (may be empty)
+     */
+    int[] extract(int srcId, long firstTime, long lastTime)
+    {
+        SourceIndex idx = sources.get(srcId);
+        if (idx == null || firstTime > lastTime) {
+            return NO_HITS;
+        }
+
+        final int lo = lowerBound(idx.times, firstTime);
+        final int hi = upperBound(idx.times, lastTime);
+        if (lo >= hi) {
+            return NO_HITS;
+        }
+
+        int[] offsets = Arrays.copyOfRange(idx.offsets, lo, hi);
+        if (!idx.inListOrder) {
+            Arrays.sort(offsets);
+        }
+
+        return offsets;
+    }
+
+    /**
+     * Sorted times and hit store offsets for a single source.
+     */
+    static class SourceIndex
+    {
+        private long[] times;
+        private int[] offsets;
+        private int size;
+        private boolean inListOrder = true;
+
+        SourceIndex(int capacity)
+        {
+            times = new long[capacity];
+            offsets = new int[capacity];
+        }
+
+        void add(long time, int offset)
+        {
+            if (size > 0 && time < times[size - 1]) {
+                inListOrder = false;
+            }
+
+            times[size] = time;
+            offsets[size] = offset;
+            size++;
+        }
+
+        /**
+         * Stable merge sort of the times, carrying the offsets along.
+         */
+        void sort()
+        {
+            if (inListOrder) {
+                return;
+            }
+
+            long[] tmpTimes = new long[size];
+            int[] tmpOffsets = new int[size];
+
+            for (int width = 1; width < size; width *= 2) {
+                for (int lo = 0; lo < size; lo += width * 2) {
+                    final int mid = Math.min(lo + width, size);
+                    final int hi = Math.min(lo + width * 2, size);
+
+                    int i = lo;
+                    int j = mid;
+                    int k = lo;
+                    while (i < mid && j < hi) {
+                        if (times[j] < times[i]) {
+                            tmpTimes[k] = times[j];
+                            tmpOffsets[k++] = offsets[j++];
+                        } else {
+                            tmpTimes[k] = times[i];
+                            tmpOffsets[k++] = offsets[i++];
+                        }
+                    }
+                    while (i < mid) {
+                        tmpTimes[k] = times[i];
+                        tmpOffsets[k++] = offsets[i++];
+                    }
+                    while (j < hi) {
+                        tmpTimes[k] = times[j];
+                        tmpOffsets[k++] = offsets[j++];
+                    }
+                }
+
+                long[] swapTimes = times;
+                times = tmpTimes;
+                tmpTimes = swapTimes;
+
+                int[] swapOffsets = offsets;
+                offsets = tmpOffsets;
+                tmpOffsets = swapOffsets;
+            }
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package icecube.daq.test;
+
+import icecube.daq.payload.PayloadRegistry;
+import icecube.daq.payload.impl.DOMID;
+import icecube.daq.util.IDOMRegistry;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Simulated hits stored as parallel arrays of primitives, one entry per
+ * hit, so large hit sets don't need an object for every hit.  Hits are
+ * encoded straight from the arrays into any of the hit formats used by
+ * the tests.
+ */
+public class HitStore
+{
+    static final int DATA_MAX_LENGTH = 2047 - 12;
+    static final int RAW_LENGTH = 38 + DATA_MAX_LENGTH;
+    static final int SIMPLE_LENGTH = 38;
+    static final int BASE_LENGTH = 58;
+    static final int BASE_RECORD_LENGTH = 20;
+    static final int EXPANDED_LENGTH = 4;
+
+    /** Fake compressed waveform attached to every hit */
+    private static final byte[] DATA = new byte[] {
+        (byte) 0xff, (byte) 0xee, (byte) 0xdd,
+        (byte) 0xcc, (byte) 0xbb, (byte) 0xaa
+    };
+
+    /** Length of an expanded delta-compressed hit */
+    static final int DELTA_LENGTH = BASE_LENGTH + DATA.length;
+    /** Length of a hit record inside a hit record list */
+    static final int DELTA_RECORD_LENGTH = BASE_RECORD_LENGTH + DATA.length;
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private IDOMRegistry domRegistry;
+    private int trigType;
+    private int cfgId;
+    private int defaultTrigMode;
+
+    /** Channel IDs which have already been looked up */
+    private HashMap<Long, Short> chanCache = new HashMap<Long, Short>();
+
+    private long[] time;
+    private int[] srcId;
+    private long[] domId;
+    private short[] chanId;
+    private int[] trigMode;
+    private int size;
+
+    /**
+     * Create an empty hit store.
+     *
+     * @param domRegistry used to find the channel ID for each DOM
+     * @param trigType trigger type of every hit
+     * @param cfgId configuration ID of every hit
+     * @param defaultTrigMode trigger mode of hits added without one
+     */
+    HitStore(IDOMRegistry domRegistry, int trigType, int cfgId,
+             int defaultTrigMode)
+    {
+        this(domRegistry, trigType, cfgId, defaultTrigMode, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty hit store.
+     *
+     * @param domRegistry used to find the channel ID for each DOM
+     * @param trigType trigger type of every hit
+     * @param cfgId configuration ID of every hit
+     * @param defaultTrigMode trigger mode of hits added without one
+     * @param capacity expected number of hits
+     */
+    HitStore(IDOMRegistry domRegistry, int trigType, int cfgId,
+             int defaultTrigMode, int capacity)
+    {
+        if (domRegistry == null) {
+            throw new Error("DOM registry has not been set");
+        } else if (capacity < 1) {
+            throw new Error("Bad hit store capacity " + capacity);
+        }
+
+        this.domRegistry = domRegistry;
+        this.trigType = trigType;
+        this.cfgId = cfgId;
+        this.defaultTrigMode = defaultTrigMode;
+
+        time = new long[capacity];
+        srcId = new int[capacity];
+        domId = new long[capacity];
+        chanId = new short[capacity];
+        trigMode = new int[capacity];
+    }
+
+    /**
+     * Add a hit using the default trigger mode.
+     *
+     * @param hitTime hit time
+     * @param hitSrcId hub source ID
+     * @param hitDomId DOM mainboard ID
+     *
+     * @return index of the new hit
+     */
+    int add(long hitTime, int hitSrcId, long hitDomId)
+    {
+        return add(hitTime, hitSrcId, hitDomId, defaultTrigMode);
+    }
+
+    /**
+     * Add a hit.
+     *
+     * @param hitTime hit time
+     * @param hitSrcId hub source ID
+     * @param hitDomId DOM mainboard ID
+     * @param hitTrigMode trigger mode
+     *
+     * @return index of the new hit
+     */
+    int add(long hitTime, int hitSrcId, long hitDomId, int hitTrigMode)
+    {
+        return add(hitTime, hitSrcId, hitDomId, lookupChannelId(hitDomId),
+                   hitTrigMode);
+    }
+
+    /**
+     * Add a hit whose channel ID was already found by
+     * <tt>lookupChannelId()</tt>.
+     *
+     * @param hitTime hit time
+     * @param hitSrcId hub source ID
+     * @param hitDomId DOM mainboard ID
+     * @param hitChanId channel ID
+     * @param hitTrigMode trigger mode
+     *
+     * @return index of the new hit
+     */
+    int add(long hitTime, int hitSrcId, long hitDomId, short hitChanId,
+            int hitTrigMode)
+    {
+        if (size == time.length) {
+            grow(size + 1);
+        }
+
+        time[size] = hitTime;
+        srcId[size] = hitSrcId;
+        domId[size] = hitDomId;
+        chanId[size] = hitChanId;
+        trigMode[size] = hitTrigMode;
+
+        return size++;
+    }
+
+    /**
+     * Remove all hits, keeping the arrays so the store can be refilled.
+     */
+    void clear()
+    {
+        size = 0;
+    }
+
+    /**
+     * Make sure there is room for at least <tt>min</tt> hits.
+     *
+     * @param min minimum capacity
+     */
+    private void grow(int min)
+    {
+        int cap = time.length + (time.length >> 1);
+        if (cap < min) {
+            cap = min;
+        }
+
+        time = Arrays.copyOf(time, cap);
+        srcId = Arrays.copyOf(srcId, cap);
+        domId = Arrays.copyOf(domId, cap);
+        chanId = Arrays.copyOf(chanId, cap);
+        trigMode = Arrays.copyOf(trigMode, cap);
+    }
+
+    /**
+     * Find the channel ID for a DOM, asking the registry only the first
+     * time each DOM is seen.
+     *
+     * @param dom DOM mainboard ID
+     *
+     * @return channel ID
+     */
+    short lookupChannelId(long dom)
+    {
+        Short cached = chanCache.get(dom);
+        if (cached != null) {
+            return cached.shortValue();
+        }
+
+        final short chan = domRegistry.getChannelId(dom);
+        if (chan < 0) {
+            throw new Error("Couldn't find channel ID for DOM " +
+                            DOMID.toString(dom));
+        }
+
+        chanCache.put(dom, chan);
+        return chan;
+    }
+
+    short getChannelID(int idx) { return chanId[checkIndex(idx)]; }
+    long getDOMID(int idx) { return domId[checkIndex(idx)]; }
+    int getSourceID(int idx) { return srcId[checkIndex(idx)]; }
+    long getTime(int idx) { return time[checkIndex(idx)]; }
+    int getTriggerMode(int idx) { return trigMode[checkIndex(idx)]; }
+
+    private int checkIndex(int idx)
+    {
+        if (idx < 0 || idx >= size) {
+            throw new Error("Bad hit index " + idx + " (" + size + " hits)");
+        }
+
+        return idx;
+    }
+
+    /**
+     * Write an expanded delta-compressed hit.
+     *
+     * @param idx hit index
+     * @param buf destination buffer
+     */
+    void putDelta(int idx, ByteBuffer buf)
+    {
+        putDeltaInternal(checkIndex(idx), buf, true);
+    }
+
+    private void putDeltaInternal(int idx, ByteBuffer buf, boolean isExpanded)
+    {
+        final int startPos = buf.position();
+
+        final int payLen;
+        final int payType;
+
+        if (isExpanded) {
+            payLen = DELTA_LENGTH;
+            payType = PayloadRegistry.PAYLOAD_ID_COMPRESSED_HIT_DATA;
+        } else {
+            payLen = DELTA_LENGTH - EXPANDED_LENGTH;
+            payType = PayloadRegistry.PAYLOAD_ID_DELTA_HIT;
+        }
+
+        // hit envelope
+        buf.putInt(payLen);
+        buf.putInt(payType);
+
+        // hit data
+        if (isExpanded) {
+            buf.putLong(time[idx]);
+            buf.putInt(trigType);
+            buf.putInt(cfgId);
+            buf.putInt(srcId[idx]);
+            buf.putLong(domId[idx]);
+        } else {
+            buf.putLong(domId[idx]);
+            buf.putLong(Long.MIN_VALUE);
+            buf.putLong(time[idx]);
+        }
+
+        final short orderChk = 1;
+        final short version = 1;
+        final short pedestal = 123;
+        final long domclk = time[idx];
+        final int word0 = 0x10000 + DATA.length + 12 + (trigMode[idx] << 18);
+        final int word2 = 12345;
+
+        // delta compressed record
+        buf.putShort(orderChk);
+        buf.putShort(version);
+        buf.putShort(pedestal);
+        buf.putLong(domclk);
+        buf.putInt(word0);
+        buf.putInt(word2);
+
+        buf.put(DATA);
+
+        if (buf.position() != startPos + payLen) {
+            throw new Error("Expected to put " + payLen + " bytes, not " +
+                            (buf.position() - startPos));
+        }
+    }
+
+    /**
+     * Write a hit record for a hit record list.
+     *
+     * @param idx hit index
+     * @param buf destination buffer
+     * @param baseTime time of the enclosing hit record list
+     */
+    void putDeltaRecord(int idx, ByteBuffer buf, long baseTime)
+    {
+        checkIndex(idx);
+
+        final int startPos = buf.position();
+
+        final int payLen = DELTA_RECORD_LENGTH;
+
+        final byte recType = (byte) 1;
+        final byte flags = (byte) 0xff;
+
+        // hit envelope
+        buf.putShort((short) payLen);
+        buf.put(recType);
+        buf.put(flags);
+        buf.putShort(chanId[idx]);
+        buf.putInt((int) (time[idx] - baseTime));
+
+        final short pedestal = 123;
+        final int word0 = 0x10000 + DATA.length + 12 + (trigMode[idx] << 18);
+        final int word2 = 12345;
+
+        buf.putShort(pedestal);
+        buf.putInt(word0);
+        buf.putInt(word2);
+
+        buf.put(DATA);
+
+        if (buf.position() != startPos + payLen) {
+            throw new Error("Expected to put " + payLen + " bytes, not " +
+                            (buf.position() - startPos));
+        }
+    }
+
+    /**
+     * Write a raw (unexpanded) delta-compressed hit.
+     *
+     * @param idx hit index
+     * @param buf destination buffer
+     */
+    void putRaw(int idx, ByteBuffer buf)
+    {
+        putDeltaInternal(checkIndex(idx), buf, false);
+    }
+
+    /**
+     * Write a simple hit.
+     *
+     * @param idx hit index
+     * @param buf destination buffer
+     */
+    void putSimple(int idx, ByteBuffer buf)
+    {
+        checkIndex(idx);
+
+        final int startPos = buf.position();
+
+        final int payLen = SIMPLE_LENGTH;
+
+        buf.putInt(payLen);
+        buf.putInt(PayloadRegistry.PAYLOAD_ID_SIMPLE_HIT);
+        buf.putLong(time[idx]);
+
+        buf.putInt(trigType);
+        buf.putInt(cfgId);
+        buf.putInt(srcId[idx]);
+        buf.putLong(domId[idx]);
+        buf.putShort((short) trigMode[idx]);
+
+        if (buf.position() != startPos + payLen) {
+            throw new Error("Expected to put " + payLen + " bytes, not " +
+                            (buf.position() - startPos));
+        }
+    }
+
+    /**
+     * Get the number of hits.
+     *
+     * @return number of hits
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Describe a single hit.
+     *
+     * @param idx hit index
+     *
+     * @return description
+     */
+    String toString(int idx)
+    {
+        checkIndex(idx);
+
+        return "Hit[" + time[idx] + " cfg " + cfgId + " src " + srcId[idx] +
+            " dom " + Long.toHexString(domId[idx]) + " chan " + chanId[idx] +
+            " mode " + trigMode[idx] + "]";
+    }
+
+    @Override
+    public String toString()
+    {
+        return "HitStore[" + size + " hits, type " + trigType + " cfg " +
+            cfgId + "]";
+    }
+}
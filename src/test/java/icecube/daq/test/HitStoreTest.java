@@ -0,0 +1,131 @@
+package icecube.daq.test;
+
+import icecube.daq.util.DOMRegistryFactory;
+import icecube.daq.util.IDOMRegistry;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.ByteBuffer;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ * Pin the bytes written by each <tt>HitStore</tt> encoder.  The expected
+ * values were produced by the <tt>HitData</tt> encoders which
+ * <tt>HitStore</tt> replaced.
+ */
+public class HitStoreTest
+    extends TestCase
+{
+    private static final long TIME = 123456789012L;
+    private static final long BASE_TIME = TIME - 1000L;
+    private static final int TRIG_TYPE = 2;
+    private static final int CONFIG_ID = 3;
+    private static final int SOURCE_ID = 12001;
+    /** Channel 64 in the test geometry file */
+    private static final long DOM_ID = 0x2b05aa7f0f6bL;
+    private static final int TRIG_MODE = 2;
+
+    private static final String SIMPLE_BYTES =
+        "00000026 00000001 0000001cbe991a14 00000002 00000003 00002ee1" +
+        " 00002b05aa7f0f6b 0002";
+    private static final String RAW_BYTES =
+        "0000003c 00000011 00002b05aa7f0f6b 8000000000000000" +
+        " 0000001cbe991a14 0001 0001 007b 0000001cbe991a14 00090012" +
+        " 00003039 ffeeddccbbaa";
+    private static final String EXPANDED_BYTES =
+        "00000040 00000012 0000001cbe991a14 00000002 00000003 00002ee1" +
+        " 00002b05aa7f0f6b 0001 0001 007b 0000001cbe991a14 00090012" +
+        " 00003039 ffeeddccbbaa";
+    private static final String RECORD_BYTES =
+        "001a 01 ff 0040 000003e8 007b 00090012 00003039 ffeeddccbbaa";
+
+    private HitStore store;
+    private int hit;
+
+    public HitStoreTest(String name)
+    {
+        super(name);
+    }
+
+    private static void assertBytes(String name, String expHex,
+                                    ByteBuffer buf, int expLen)
+    {
+        final String hex = expHex.replace(" ", "");
+
+        buf.flip();
+        assertEquals("Bad " + name + " length", hex.length() / 2,
+                     buf.remaining());
+        assertEquals("Bad " + name + " length constant", expLen,
+                     buf.remaining());
+
+        for (int i = 0; i < hex.length() / 2; i++) {
+            final int exp = Integer.parseInt(hex.substring(i * 2, i * 2 + 2),
+                                             16);
+            assertEquals("Bad " + name + " byte #" + i, exp,
+                         buf.get(i) & 0xff);
+        }
+    }
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        URL url = getClass().getResource("/config");
+        if (url == null) {
+            throw new Error("Cannot find test config directory");
+        }
+
+        IDOMRegistry reg = DOMRegistryFactory.load(new File(url.toURI()).
+                                                   getPath());
+
+        store = new HitStore(reg, TRIG_TYPE, CONFIG_ID, 0);
+        hit = store.add(TIME, SOURCE_ID, DOM_ID, TRIG_MODE);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(HitStoreTest.class);
+    }
+
+    public void testSimple()
+    {
+        ByteBuffer buf = ByteBuffer.allocate(HitStore.RAW_LENGTH);
+        store.putSimple(hit, buf);
+        assertBytes("simple hit", SIMPLE_BYTES, buf, HitStore.SIMPLE_LENGTH);
+    }
+
+    public void testRaw()
+    {
+        ByteBuffer buf = ByteBuffer.allocate(HitStore.RAW_LENGTH);
+        store.putRaw(hit, buf);
+        assertBytes("raw hit", RAW_BYTES, buf,
+                    HitStore.DELTA_LENGTH - HitStore.EXPANDED_LENGTH);
+    }
+
+    public void testExpanded()
+    {
+        ByteBuffer buf = ByteBuffer.allocate(HitStore.RAW_LENGTH);
+        store.putDelta(hit, buf);
+        assertBytes("expanded hit", EXPANDED_BYTES, buf,
+                    HitStore.DELTA_LENGTH);
+    }
+
+    public void testRecord()
+    {
+        ByteBuffer buf = ByteBuffer.allocate(HitStore.RAW_LENGTH);
+        store.putDeltaRecord(hit, buf, BASE_TIME);
+        assertBytes("hit record", RECORD_BYTES, buf,
+                    HitStore.DELTA_RECORD_LENGTH);
+    }
+
+    public static void main(String[] args)
+    {
+        TestRunner.run(suite());
+    }
+}
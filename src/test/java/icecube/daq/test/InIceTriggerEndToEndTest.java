@@ -165,6 +165,8 @@ public class InIceTriggerEndToEndTest
 
         System.clearProperty(LocatePDAQ.CONFIG_DIR_PROPERTY);
 
+        DAQTestUtil.reportValidators(getName());
+
         super.tearDown();
     }
 
@@ -231,7 +233,8 @@ public class InIceTriggerEndToEndTest
         assertEquals("Bad number of payloads written",
                      expTriggers, comp.getPayloadsSent() - 1);
 
-        assertFalse("Found invalid payload(s)", validator.foundInvalid());
+        assertFalse("Found invalid payload(s)",
+                    DAQTestUtil.foundInvalid(validator));
 
         DAQTestUtil.checkCaches(null, null, null, comp, null);
         DAQTestUtil.destroyComponentIO(null, null, null, comp, null);
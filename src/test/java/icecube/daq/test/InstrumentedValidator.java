@@ -0,0 +1,231 @@
+package icecube.daq.test;
+
+import icecube.daq.payload.IPayload;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+/**
+ * Count the payloads passed to another validator, along with the bytes
+ * checked, failures, and the time and memory each validation takes.
+ * Allocations are only measured where the JVM supports per-thread
+ * allocation counters.
+ */
+public class InstrumentedValidator
+    implements PayloadValidator
+{
+    /** System property which prints validator reports at teardown */
+    public static final String REPORT_PROPERTY =
+        "icecube.daq.test.validatorReport";
+
+    /** Per-thread allocation counters (<tt>null</tt> if unsupported) */
+    private static final com.sun.management.ThreadMXBean ALLOC_BEAN =
+        findAllocationBean();
+
+    private PayloadValidator validator;
+
+    private long numValidated;
+    private long numBytes;
+    private long numFailed;
+    private long numErrors;
+
+    /** Nanoseconds spent in each validation */
+    private LatencyHistogram time = new LatencyHistogram();
+    /** Bytes allocated by each validation */
+    private LatencyHistogram allocated = new LatencyHistogram();
+
+    /**
+     * Instrument a validator.
+     *
+     * @param validator validator which does the real work
+     */
+    public InstrumentedValidator(PayloadValidator validator)
+    {
+        if (validator == null) {
+            throw new Error("Validator cannot be null");
+        }
+
+        this.validator = validator;
+    }
+
+    /**
+     * Get the number of bytes allocated so far by the current thread.
+     *
+     * @return allocated bytes, or -1 if allocations cannot be measured
+     */
+    private static long allocatedBytes()
+    {
+        if (ALLOC_BEAN == null) {
+            return -1L;
+        }
+
+        return ALLOC_BEAN.getThreadAllocatedBytes(Thread.currentThread().
+                                                  getId());
+    }
+
+    /**
+     * Find the bean which reports per-thread allocations, turning on
+     * allocation counting if necessary.
+     *
+     * @return thread bean, or <tt>null</tt> if the JVM cannot count
+     *         allocations
+     */
+    private static com.sun.management.ThreadMXBean findAllocationBean()
+    {
+        try {
+            java.lang.management.ThreadMXBean bean =
+                ManagementFactory.getThreadMXBean();
+            if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+                return null;
+            }
+
+            com.sun.management.ThreadMXBean sunBean =
+                (com.sun.management.ThreadMXBean) bean;
+            if (!sunBean.isThreadAllocatedMemorySupported()) {
+                return null;
+            }
+
+            if (!sunBean.isThreadAllocatedMemoryEnabled()) {
+                sunBean.setThreadAllocatedMemoryEnabled(true);
+            }
+
+            return sunBean;
+        } catch (LinkageError le) {
+            // not a HotSpot-derived JVM
+            return null;
+        } catch (UnsupportedOperationException uoe) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean foundInvalid()
+    {
+        return validator.foundInvalid();
+    }
+
+    public LatencyHistogram getAllocations()
+    {
+        return allocated;
+    }
+
+    public synchronized long getNumberFailed()
+    {
+        return numFailed;
+    }
+
+    public synchronized long getNumberValidated()
+    {
+        return numValidated;
+    }
+
+    /**
+     * Summarize the validator's workload and cost.
+     *
+     * @return report
+     */
+    public String getStatistics()
+    {
+        StringBuilder buf = new StringBuilder();
+
+        String name = validator.getClass().getSimpleName();
+        if (name.length() == 0) {
+            // anonymous validator
+            name = validator.getClass().getName();
+        }
+
+        buf.append(name).append(": ");
+        synchronized (this) {
+            buf.append(numValidated).append(" validated, ").
+                append(numBytes).append(" bytes, ").append(numFailed).
+                append(" failed, ").append(numErrors).append(" errors");
+        }
+
+        buf.append(", time ").append(time.toNanosString());
+        if (ALLOC_BEAN == null) {
+            buf.append(", alloc n/a");
+        } else {
+            buf.append(", alloc bytes ").append(allocated);
+        }
+
+        return buf.toString();
+    }
+
+    public LatencyHistogram getTime()
+    {
+        return time;
+    }
+
+    /**
+     * Record one validation.
+     *
+     * @param len payload length
+     * @param start time at which validation started
+     * @param startAlloc bytes allocated before validation started
+     * @param valid <tt>true</tt> if the payload was valid
+     * @param threw <tt>true</tt> if the validator threw an exception
+     */
+    private void record(int len, long start, long startAlloc, boolean valid,
+                        boolean threw)
+    {
+        final long end = System.nanoTime();
+        final long endAlloc = allocatedBytes();
+
+        time.record(end - start);
+        if (startAlloc >= 0 && endAlloc >= startAlloc) {
+            allocated.record(endAlloc - startAlloc);
+        }
+
+        synchronized (this) {
+            numValidated++;
+            numBytes += len;
+            if (threw) {
+                numErrors++;
+            } else if (!valid) {
+                numFailed++;
+            }
+        }
+    }
+
+    @Override
+    public boolean validate(ByteBuffer payBuf)
+    {
+        final long startAlloc = allocatedBytes();
+        final long start = System.nanoTime();
+
+        boolean valid = false;
+        boolean finished = false;
+        try {
+            valid = validator.validate(payBuf);
+            finished = true;
+        } finally {
+            record(payBuf.limit(), start, startAlloc, valid, !finished);
+        }
+
+        return valid;
+    }
+
+    @Override
+    public boolean validate(IPayload payload)
+    {
+        final long startAlloc = allocatedBytes();
+        final long start = System.nanoTime();
+
+        boolean valid = false;
+        boolean finished = false;
+        try {
+            valid = validator.validate(payload);
+            finished = true;
+        } finally {
+            record(payload.length(), start, startAlloc, valid, !finished);
+        }
+
+        return valid;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Instrumented[" + validator + "]";
+    }
+}
@@ -0,0 +1,240 @@
+package icecube.daq.test;
+
+/**
+ * HDR-style histogram of non-negative values (usually nanoseconds).
+ * Each power of two is split into eight linear sub-buckets, and
+ * percentiles are reported as the upper bound of the bucket holding that
+ * percentile, so they are accurate to within 12.5%.
+ */
+public class LatencyHistogram
+{
+    /** Number of bits used to pick a sub-bucket */
+    private static final int SUB_BITS = 3;
+    /** Number of sub-buckets for each power of two */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /** Enough buckets for every positive <tt>long</tt> */
+    private static final int NUM_BUCKETS =
+        SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+    private long[] buckets = new long[NUM_BUCKETS];
+    private long count;
+    private long total;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    /**
+     * Get the bucket index for a value.
+     *
+     * @param value value being recorded
+     *
+     * @return bucket index
+     */
+    private static int bucket(long value)
+    {
+        if (value < SUB_BUCKETS) {
+            return value <= 0 ? 0 : (int) value;
+        }
+
+        final int exp = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+
+        return SUB_BUCKETS + (exp - SUB_BITS) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Get the largest value which falls in a bucket.
+     *
+     * @param index bucket index
+     *
+     * @return upper bound
+     */
+    private static long upperBound(int index)
+    {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        final int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        final int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+
+        final long next = (long) (SUB_BUCKETS + sub + 1) << shift;
+        if (next <= 0) {
+            return Long.MAX_VALUE;
+        }
+
+        return next - 1;
+    }
+
+    /**
+     * Format a number of nanoseconds with a sensible unit.
+     *
+     * @param nanos nanoseconds
+     *
+     * @return formatted string
+     */
+    static String formatNanos(long nanos)
+    {
+        if (nanos < 10000L) {
+            return nanos + "ns";
+        } else if (nanos < 10000000L) {
+            return (nanos / 1000L) + "us";
+        } else if (nanos < 10000000000L) {
+            return (nanos / 1000000L) + "ms";
+        }
+
+        return (nanos / 1000000000L) + "s";
+    }
+
+    /**
+     * Add all the values from another histogram.
+     *
+     * @param other histogram to merge
+     */
+    public void add(LatencyHistogram other)
+    {
+        long[] otherBuckets;
+        long otherCount, otherTotal, otherMin, otherMax;
+        synchronized (other) {
+            otherBuckets = other.buckets.clone();
+            otherCount = other.count;
+            otherTotal = other.total;
+            otherMin = other.min;
+            otherMax = other.max;
+        }
+
+        synchronized (this) {
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                buckets[i] += otherBuckets[i];
+            }
+            count += otherCount;
+            total += otherTotal;
+            if (otherMin < min) {
+                min = otherMin;
+            }
+            if (otherMax > max) {
+                max = otherMax;
+            }
+        }
+    }
+
+    /**
+     * Clear all recorded values.
+     */
+    public synchronized void clear()
+    {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            buckets[i] = 0;
+        }
+        count = 0;
+        total = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    public synchronized long getCount()
+    {
+        return count;
+    }
+
+    public synchronized long getMax()
+    {
+        return max;
+    }
+
+    public synchronized long getMean()
+    {
+        if (count == 0) {
+            return 0;
+        }
+
+        return total / count;
+    }
+
+    public synchronized long getMin()
+    {
+        if (count == 0) {
+            return 0;
+        }
+
+        return min;
+    }
+
+    /**
+     * Get the approximate value below which <tt>pct</tt> percent of the
+     * recorded values fall.
+     *
+     * @param pct percentile (0-100)
+     *
+     * @return upper bound of the bucket holding the percentile
+     */
+    public synchronized long getPercentile(double pct)
+    {
+        if (count == 0) {
+            return 0;
+        }
+
+        final long target = (long) Math.ceil(count * pct / 100.0);
+
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= target && seen > 0) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+
+        return max;
+    }
+
+    public synchronized long getTotal()
+    {
+        return total;
+    }
+
+    /**
+     * Record a value.
+     *
+     * @param value value to record
+     */
+    public synchronized void record(long value)
+    {
+        buckets[bucket(value)]++;
+        count++;
+        total += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Summarize the recorded values as times.
+     *
+     * @return summary
+     */
+    public String toNanosString()
+    {
+        if (getCount() == 0) {
+            return "n=0";
+        }
+
+        return "n=" + getCount() + " avg=" + formatNanos(getMean()) +
+            " p50<=" + formatNanos(getPercentile(50.0)) +
+            " p99<=" + formatNanos(getPercentile(99.0)) +
+            " max=" + formatNanos(getMax());
+    }
+
+    @Override
+    public String toString()
+    {
+        if (getCount() == 0) {
+            return "n=0";
+        }
+
+        return "n=" + getCount() + " avg=" + getMean() +
+            " p50<=" + getPercentile(50.0) + " p99<=" +
+            getPercentile(99.0) + " max=" + getMax();
+    }
+}
@@ -0,0 +1,305 @@
+package icecube.daq.test;
+
+import java.util.Random;
+
+/**
+ * Distribution of per-payload delays.  Models hold no random state of
+ * their own, so one model can be shared by many links, each drawing from
+ * its own seeded generator.
+ */
+public abstract class LatencyModel
+{
+    /**
+     * Draw the next delay.
+     *
+     * @param rng random number generator owned by the caller
+     *
+     * @return delay in nanoseconds (never negative)
+     */
+    public abstract long nextNanos(Random rng);
+
+    /**
+     * Every payload is delayed by the same amount.
+     *
+     * @param nanos delay in nanoseconds
+     *
+     * @return constant model
+     */
+    public static LatencyModel constant(long nanos)
+    {
+        if (nanos < 0) {
+            throw new Error("Bad constant latency " + nanos);
+        }
+
+        return new Constant(nanos);
+    }
+
+    /**
+     * A fixed minimum delay plus an exponentially distributed tail, as
+     * seen on a congested network.
+     *
+     * @param minNanos minimum delay in nanoseconds
+     * @param meanExtraNanos mean of the extra delay in nanoseconds
+     *
+     * @return exponential model
+     */
+    public static LatencyModel exponential(long minNanos, long meanExtraNanos)
+    {
+        if (minNanos < 0 || meanExtraNanos <= 0) {
+            throw new Error("Bad exponential latency " + minNanos + "+" +
+                            meanExtraNanos);
+        }
+
+        return new Exponential(minNanos, meanExtraNanos);
+    }
+
+    /**
+     * Normally distributed delays, with negative draws treated as zero.
+     *
+     * @param meanNanos mean delay in nanoseconds
+     * @param stddevNanos standard deviation in nanoseconds
+     *
+     * @return normal model
+     */
+    public static LatencyModel normal(long meanNanos, long stddevNanos)
+    {
+        if (meanNanos < 0 || stddevNanos < 0) {
+            throw new Error("Bad normal latency " + meanNanos + "/" +
+                            stddevNanos);
+        }
+
+        return new Normal(meanNanos, stddevNanos);
+    }
+
+    /**
+     * Pareto-distributed delays, whose long tail produces occasional
+     * very slow responses.
+     *
+     * @param minNanos shortest delay in nanoseconds
+     * @param alpha shape parameter (smaller values give a longer tail)
+     *
+     * @return Pareto model
+     */
+    public static LatencyModel pareto(long minNanos, double alpha)
+    {
+        if (minNanos <= 0 || alpha <= 0.0) {
+            throw new Error("Bad Pareto latency " + minNanos + "/" + alpha);
+        }
+
+        return new Pareto(minNanos, alpha);
+    }
+
+    /**
+     * Delays spread evenly over a range.
+     *
+     * @param minNanos shortest delay in nanoseconds
+     * @param maxNanos longest delay in nanoseconds
+     *
+     * @return uniform model
+     */
+    public static LatencyModel uniform(long minNanos, long maxNanos)
+    {
+        if (minNanos < 0 || maxNanos < minNanos) {
+            throw new Error("Bad uniform latency " + minNanos + "-" +
+                            maxNanos);
+        }
+
+        return new Uniform(minNanos, maxNanos);
+    }
+
+    /**
+     * Add an occasional stall to another model.
+     *
+     * @param base model used for most delays
+     * @param probability chance of any single delay being a stall
+     * @param stallNanos length of a stall in nanoseconds
+     *
+     * @return model with stalls
+     */
+    public static LatencyModel withStalls(LatencyModel base,
+                                          double probability, long stallNanos)
+    {
+        if (base == null) {
+            throw new Error("Base latency model cannot be null");
+        } else if (probability < 0.0 || probability > 1.0) {
+            throw new Error("Bad stall probability " + probability);
+        } else if (stallNanos < 0) {
+            throw new Error("Bad stall length " + stallNanos);
+        }
+
+        return new Stalling(base, probability, stallNanos);
+    }
+
+    static class Constant
+        extends LatencyModel
+    {
+        private long nanos;
+
+        Constant(long nanos)
+        {
+            this.nanos = nanos;
+        }
+
+        @Override
+        public long nextNanos(Random rng)
+        {
+            return nanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Constant[" + LatencyHistogram.formatNanos(nanos) + "]";
+        }
+    }
+
+    static class Exponential
+        extends LatencyModel
+    {
+        private long minNanos;
+        private long meanExtraNanos;
+
+        Exponential(long minNanos, long meanExtraNanos)
+        {
+            this.minNanos = minNanos;
+            this.meanExtraNanos = meanExtraNanos;
+        }
+
+        @Override
+        public long nextNanos(Random rng)
+        {
+            final double extra = -Math.log(1.0 - rng.nextDouble()) *
+                meanExtraNanos;
+            return minNanos + (long) extra;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Exponential[" + LatencyHistogram.formatNanos(minNanos) +
+                "+" + LatencyHistogram.formatNanos(meanExtraNanos) + "]";
+        }
+    }
+
+    static class Normal
+        extends LatencyModel
+    {
+        private long meanNanos;
+        private long stddevNanos;
+
+        Normal(long meanNanos, long stddevNanos)
+        {
+            this.meanNanos = meanNanos;
+            this.stddevNanos = stddevNanos;
+        }
+
+        @Override
+        public long nextNanos(Random rng)
+        {
+            final long val = meanNanos +
+                (long) (rng.nextGaussian() * stddevNanos);
+            return Math.max(0L, val);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Normal[" + LatencyHistogram.formatNanos(meanNanos) +
+                "~" + LatencyHistogram.formatNanos(stddevNanos) + "]";
+        }
+    }
+
+    static class Pareto
+        extends LatencyModel
+    {
+        /** Longest delay which will be returned (one minute) */
+        private static final double MAX_NANOS = 60.0E9;
+
+        private long minNanos;
+        private double alpha;
+
+        Pareto(long minNanos, double alpha)
+        {
+            this.minNanos = minNanos;
+            this.alpha = alpha;
+        }
+
+        @Override
+        public long nextNanos(Random rng)
+        {
+            final double val = minNanos /
+                Math.pow(1.0 - rng.nextDouble(), 1.0 / alpha);
+            return (long) Math.min(val, MAX_NANOS);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Pareto[" + LatencyHistogram.formatNanos(minNanos) +
+                "^" + alpha + "]";
+        }
+    }
+
+    static class Stalling
+        extends LatencyModel
+    {
+        private LatencyModel base;
+        private double probability;
+        private long stallNanos;
+
+        Stalling(LatencyModel base, double probability, long stallNanos)
+        {
+            this.base = base;
+            this.probability = probability;
+            this.stallNanos = stallNanos;
+        }
+
+        @Override
+        public long nextNanos(Random rng)
+        {
+            if (rng.nextDouble() < probability) {
+                return stallNanos;
+            }
+
+            return base.nextNanos(rng);
+        }
+
+        @Override
+        public String toString()
+        {
+            return base + "+stall[" + probability + "*" +
+                LatencyHistogram.formatNanos(stallNanos) + "]";
+        }
+    }
+
+    static class Uniform
+        extends LatencyModel
+    {
+        private long minNanos;
+        private long maxNanos;
+
+        Uniform(long minNanos, long maxNanos)
+        {
+            this.minNanos = minNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        @Override
+        public long nextNanos(Random rng)
+        {
+            if (maxNanos == minNanos) {
+                return minNanos;
+            }
+
+            return minNanos +
+                (long) (rng.nextDouble() * (maxNanos - minNanos));
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Uniform[" + LatencyHistogram.formatNanos(minNanos) + "-" +
+                LatencyHistogram.formatNanos(maxNanos) + "]";
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package icecube.daq.test;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Per-link state needed to apply a <tt>LinkProfile</tt>.
+ */
+class LinkEmulator
+{
+    private LinkProfile profile;
+    private Random rng;
+
+    private ArrayDeque<Long> recent = new ArrayDeque<Long>();
+    private long floor = Long.MIN_VALUE;
+    private long maxDeadline = Long.MIN_VALUE;
+
+    private double tokens;
+    private long lastRefill;
+    private long throttledNanos;
+
+    LinkEmulator(String name, LinkProfile profile)
+    {
+        this.profile = profile;
+        this.rng = new Random(profile.getSeed() ^ name.hashCode());
+
+        tokens = profile.getBurstSize();
+        lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Choose the time at which a payload should be delivered.
+     * A payload may only be overtaken by payloads within the reorder
+     * window, so its deadline is never earlier than that of any payload
+     * which has slid out of the window.
+     *
+     * @param queued time at which the payload was queued
+     * @param isLast <tt>true</tt> if nothing may be delivered after this
+     *
+     * @return delivery deadline
+     */
+    long assignDeadline(long queued, boolean isLast)
+    {
+        long deadline = queued;
+        if (profile.getLatency() != null) {
+            deadline += profile.getLatency().nextNanos(rng);
+        }
+
+        if (isLast && maxDeadline > deadline) {
+            deadline = maxDeadline;
+        }
+        if (floor > deadline) {
+            deadline = floor;
+        }
+
+        recent.addLast(deadline);
+        if (recent.size() > profile.getReorderWindow()) {
+            final long old = recent.removeFirst();
+            if (old > floor) {
+                floor = old;
+            }
+        }
+
+        if (deadline > maxDeadline) {
+            maxDeadline = deadline;
+        }
+
+        return deadline;
+    }
+
+    /**
+     * Get the total time spent waiting for bandwidth.
+     *
+     * @return nanoseconds spent throttled
+     */
+    long getThrottledNanos()
+    {
+        return throttledNanos;
+    }
+
+    /**
+     * Wait until the bandwidth cap allows <tt>len</tt> more bytes to be
+     * sent.
+     *
+     * @param len number of bytes about to be sent
+     */
+    void throttle(int len)
+    {
+        final long rate = profile.getBandwidth();
+        if (rate <= 0) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        tokens = Math.min((double) profile.getBurstSize(),
+                          tokens + (now - lastRefill) * (rate / 1.0E9));
+        lastRefill = now;
+
+        tokens -= len;
+        if (tokens < 0.0) {
+            final long target = now + (long) (-tokens * 1.0E9 / rate);
+
+            long remaining = target - now;
+            while (remaining > 0) {
+                LockSupport.parkNanos(remaining);
+                remaining = target - System.nanoTime();
+            }
+
+            throttledNanos += System.nanoTime() - now;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LinkEmulator[" + profile + "]";
+    }
+}
@@ -0,0 +1,123 @@
+package icecube.daq.test;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ * Check the delivery order and bandwidth cap applied by
+ * <tt>LinkEmulator</tt>.
+ */
+public class LinkEmulatorTest
+    extends TestCase
+{
+    private static final int NUM_PAYLOADS = 1000;
+
+    public LinkEmulatorTest(String name)
+    {
+        super(name);
+    }
+
+    private static long[] assignDeadlines(int window)
+    {
+        LinkProfile profile = new LinkProfile();
+        profile.setLatency(LatencyModel.uniform(0L, 1000000L));
+        profile.setReorderWindow(window);
+        profile.setSeed(12345L);
+
+        LinkEmulator emu = new LinkEmulator("test", profile);
+
+        long[] deadlines = new long[NUM_PAYLOADS];
+        for (int i = 0; i < NUM_PAYLOADS; i++) {
+            // payloads arrive 10 microseconds apart
+            deadlines[i] = emu.assignDeadline(i * 10000L,
+                                              i == NUM_PAYLOADS - 1);
+        }
+
+        return deadlines;
+    }
+
+    /**
+     * Count the later payloads which are delivered before each payload.
+     *
+     * @param deadlines delivery deadlines in arrival order
+     *
+     * @return largest number of payloads which overtook a single payload
+     */
+    private static int maxOvertaken(long[] deadlines)
+    {
+        int max = 0;
+        for (int i = 0; i < deadlines.length; i++) {
+            int num = 0;
+            for (int j = i + 1; j < deadlines.length; j++) {
+                if (deadlines[j] < deadlines[i]) {
+                    num++;
+                }
+            }
+
+            if (num > max) {
+                max = num;
+            }
+        }
+
+        return max;
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(LinkEmulatorTest.class);
+    }
+
+    public void testInOrder()
+    {
+        assertEquals("Payloads were reordered", 0,
+                     maxOvertaken(assignDeadlines(0)));
+    }
+
+    public void testReorder()
+    {
+        final int window = 4;
+
+        long[] deadlines = assignDeadlines(window);
+
+        final int max = maxOvertaken(deadlines);
+        assertTrue("No payloads were reordered", max > 0);
+        assertTrue("A payload was overtaken by " + max + " payloads",
+                   max <= window);
+
+        final long last = deadlines[NUM_PAYLOADS - 1];
+        for (int i = 0; i < NUM_PAYLOADS - 1; i++) {
+            assertTrue("Payload #" + i + " is delivered after the last",
+                       deadlines[i] <= last);
+        }
+    }
+
+    public void testThrottle()
+    {
+        LinkProfile profile = new LinkProfile();
+        profile.setBandwidth(100000L, 1000L);
+
+        LinkEmulator emu = new LinkEmulator("test", profile);
+
+        // the burst allowance is sent at once
+        emu.throttle(1000);
+
+        // 5000 more bytes at 100000 bytes per second take 50 msec
+        final long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            emu.throttle(1000);
+        }
+        final long msec = (System.nanoTime() - start) / 1000000L;
+
+        assertTrue("5000 throttled bytes took only " + msec + "ms",
+                   msec >= 45);
+        assertTrue("Throttled time was not recorded",
+                   emu.getThrottledNanos() > 0);
+    }
+
+    public static void main(String[] args)
+    {
+        TestRunner.run(suite());
+    }
+}
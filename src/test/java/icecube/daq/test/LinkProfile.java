@@ -0,0 +1,143 @@
+package icecube.daq.test;
+
+/**
+ * Network conditions to emulate on a link: per-payload latency, a
+ * bandwidth cap with a burst allowance, and a window within which
+ * payloads may be delivered out of order.
+ */
+public class LinkProfile
+{
+    private LatencyModel latency;
+    private long bandwidth;
+    private long burstSize;
+    private int reorderWindow;
+    private long seed;
+
+    /**
+     * Create a profile which doesn't slow the link at all.
+     */
+    public LinkProfile()
+    {
+    }
+
+    /**
+     * Get the maximum number of bytes which can be sent back-to-back.
+     *
+     * @return burst size
+     */
+    public long getBurstSize()
+    {
+        return burstSize;
+    }
+
+    /**
+     * Get the bandwidth cap.
+     *
+     * @return bytes per second (<tt>0</tt> if unlimited)
+     */
+    public long getBandwidth()
+    {
+        return bandwidth;
+    }
+
+    /**
+     * Get the per-payload latency model.
+     *
+     * @return latency model (<tt>null</tt> if payloads aren't delayed)
+     */
+    public LatencyModel getLatency()
+    {
+        return latency;
+    }
+
+    /**
+     * Get the number of later payloads which may overtake a payload.
+     *
+     * @return reorder window
+     */
+    public int getReorderWindow()
+    {
+        return reorderWindow;
+    }
+
+    /**
+     * Get the seed for the random numbers used by this profile.
+     *
+     * @return seed
+     */
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    /**
+     * Cap the link's bandwidth.
+     *
+     * @param bytesPerSecond bandwidth (<tt>0</tt> for unlimited)
+     * @param burstSize number of bytes which may be sent back-to-back
+     *                  before the cap applies
+     */
+    public void setBandwidth(long bytesPerSecond, long burstSize)
+    {
+        if (bytesPerSecond < 0) {
+            throw new Error("Bad bandwidth " + bytesPerSecond);
+        } else if (bytesPerSecond > 0 && burstSize <= 0) {
+            throw new Error("Bad burst size " + burstSize);
+        }
+
+        this.bandwidth = bytesPerSecond;
+        this.burstSize = burstSize;
+    }
+
+    /**
+     * Delay each payload by a value drawn from <tt>latency</tt>.
+     *
+     * @param latency latency model (<tt>null</tt> for no delay)
+     */
+    public void setLatency(LatencyModel latency)
+    {
+        this.latency = latency;
+    }
+
+    /**
+     * Allow a payload to be overtaken by up to <tt>window</tt> later
+     * payloads whose latency happens to be shorter.  Stop messages are
+     * always delivered last.
+     *
+     * @param window reorder window (<tt>0</tt> to keep payloads in order)
+     */
+    public void setReorderWindow(int window)
+    {
+        if (window < 0) {
+            throw new Error("Bad reorder window " + window);
+        }
+
+        this.reorderWindow = window;
+    }
+
+    /**
+     * Set the seed for the random numbers used by this profile.  Each
+     * link mixes in its own name so links sharing a profile differ.
+     *
+     * @param seed random seed
+     */
+    public void setSeed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder buf = new StringBuilder("LinkProfile[");
+        buf.append(latency == null ? "noLatency" : latency.toString());
+        if (bandwidth > 0) {
+            buf.append(' ').append(bandwidth).append("B/s burst ").
+                append(burstSize);
+        }
+        if (reorderWindow > 0) {
+            buf.append(" reorder ").append(reorderWindow);
+        }
+        return buf.append(']').toString();
+    }
+}
@@ -0,0 +1,58 @@
+package icecube.daq.test;
+
+/**
+ * Ways in which <tt>DAQTestUtil</tt> can join a component's output process
+ * to another component's stream reader.
+ */
+public enum LinkTransport
+{
+    /**
+     * Two pipes joined by a <tt>PayloadFileBridge</tt> thread which copies
+     * each payload from one pipe to the other.
+     */
+    BRIDGE,
+    /**
+     * A single pipe; the output process writes straight into the channel
+     * being read by the stream reader.
+     */
+    DIRECT,
+    /**
+     * A loopback TCP connection; the output process writes to the client
+     * socket and the stream reader reads from the accepted socket.
+     */
+    SOCKET,
+    /**
+     * A memory-mapped ring buffer file.  The output process writes into
+     * the ring and a <tt>PayloadFileBridge</tt> drains it into the reader's
+     * pipe, since stream readers can only select on pipes and sockets.
+     */
+    RING,
+    /**
+     * Two pipes joined by a <tt>QueuedBridge</tt> which passes payloads
+     * through a bounded queue and keeps backpressure statistics.
+     */
+    QUEUED;
+
+    /** System property used to choose the transport for a test run */
+    public static final String PROPERTY = "icecube.daq.test.transport";
+
+    /**
+     * Get the transport named by the <tt>icecube.daq.test.transport</tt>
+     * system property.
+     *
+     * @return selected transport (<tt>BRIDGE</tt> if the property is unset)
+     */
+    public static LinkTransport getDefault()
+    {
+        final String name = System.getProperty(PROPERTY);
+        if (name == null || name.length() == 0) {
+            return BRIDGE;
+        }
+
+        try {
+            return valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException iae) {
+            throw new Error("Unknown link transport \"" + name + "\"");
+        }
+    }
+}
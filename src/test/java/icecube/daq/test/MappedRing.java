@@ -0,0 +1,415 @@
+package icecube.daq.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-producer/single-consumer ring buffer stored in a memory-mapped
+ * file.  The writing end and the reading end may live in different JVMs;
+ * each side maps the same file and they coordinate through the read and
+ * write counters in the file header.
+ *
+ * File layout (all values in native byte order):
+ * <pre>
+ *    0  magic number
+ *    8  data capacity in bytes
+ *   64  total bytes written (only updated by the writer)
+ *  128  total bytes read (only updated by the reader)
+ *  192  writer-closed flag
+ *  200  reader-closed flag
+ *  256  start of data
+ * </pre>
+ * The counters sit on separate cache lines so the two sides don't
+ * invalidate each other's lines on every update.  A blocked reader gives
+ * up once the writer has closed and the ring is empty, and a blocked
+ * writer gives up once the reader has closed.
+ * <p>
+ * The counters are accessed through a <tt>VarHandle</tt>, so the test
+ * tree needs Java 9 or later.
+ */
+public class MappedRing
+{
+    private static final long MAGIC = 0x49434552494e4731L;
+
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_CAPACITY = 8;
+    private static final int OFFSET_WRITTEN = 64;
+    private static final int OFFSET_READ = 128;
+    private static final int OFFSET_CLOSED = 192;
+    private static final int OFFSET_READER_CLOSED = 200;
+    private static final int HEADER_LENGTH = 256;
+
+    /** Longest a blocked reader or writer parks before checking again */
+    private static final long MAX_PARK_NANOS = 100000L;
+
+    private static final VarHandle LONG_VIEW =
+        MethodHandles.byteBufferViewVarHandle(long[].class,
+                                              ByteOrder.nativeOrder());
+
+    private File file;
+    private MappedByteBuffer map;
+    private ByteBuffer data;
+    private int capacity;
+    private int mask;
+
+    private MappedRing(File file, MappedByteBuffer map)
+    {
+        this.file = file;
+        this.map = map;
+
+        map.order(ByteOrder.nativeOrder());
+
+        if ((long) LONG_VIEW.getAcquire(map, OFFSET_MAGIC) != MAGIC) {
+            throw new Error(file + " is not a ring buffer file");
+        }
+
+        capacity = (int) (long) LONG_VIEW.getAcquire(map, OFFSET_CAPACITY);
+        mask = capacity - 1;
+
+        map.position(HEADER_LENGTH);
+        map.limit(HEADER_LENGTH + capacity);
+        data = map.slice();
+        map.clear();
+    }
+
+    /**
+     * Create a new ring buffer file, replacing any existing file.
+     *
+     * @param file ring buffer file
+     * @param capacity number of data bytes (must be a power of two)
+     *
+     * @return new ring
+     *
+     * @throws IOException if the file cannot be created
+     */
+    public static MappedRing create(File file, int capacity)
+        throws IOException
+    {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new Error("Ring capacity " + capacity +
+                            " is not a power of two");
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            raf.setLength(HEADER_LENGTH + capacity);
+
+            MappedByteBuffer map =
+                raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                                     HEADER_LENGTH + capacity);
+            map.order(ByteOrder.nativeOrder());
+
+            LONG_VIEW.setRelease(map, OFFSET_CAPACITY, (long) capacity);
+            LONG_VIEW.setRelease(map, OFFSET_WRITTEN, 0L);
+            LONG_VIEW.setRelease(map, OFFSET_READ, 0L);
+            LONG_VIEW.setRelease(map, OFFSET_CLOSED, 0L);
+            LONG_VIEW.setRelease(map, OFFSET_READER_CLOSED, 0L);
+            // magic is written last so a reader never sees a half-built ring
+            LONG_VIEW.setRelease(map, OFFSET_MAGIC, MAGIC);
+
+            return new MappedRing(file, map);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Open a ring buffer file created by <tt>create()</tt>, possibly in
+     * another JVM.
+     *
+     * @param file ring buffer file
+     *
+     * @return existing ring
+     *
+     * @throws IOException if the file cannot be mapped
+     */
+    public static MappedRing open(File file)
+        throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final long len = raf.length();
+            if (len < HEADER_LENGTH) {
+                throw new IOException(file + " is too short to be a ring");
+            }
+
+            MappedByteBuffer map =
+                raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, len);
+            map.order(ByteOrder.nativeOrder());
+
+            if ((long) LONG_VIEW.getAcquire(map, OFFSET_MAGIC) != MAGIC) {
+                throw new IOException(file + " is not a ring buffer file");
+            }
+
+            final long cap = (long) LONG_VIEW.getAcquire(map, OFFSET_CAPACITY);
+            if (cap <= 0 || len < HEADER_LENGTH + cap) {
+                throw new IOException(file + " holds " + len +
+                                      " bytes, too short for a " + cap +
+                                      "-byte ring");
+            }
+
+            return new MappedRing(file, map);
+        } finally {
+            raf.close();
+        }
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    private long getCounter(int offset)
+    {
+        return (long) LONG_VIEW.getAcquire(map, offset);
+    }
+
+    private boolean isReaderClosed()
+    {
+        return getCounter(OFFSET_READER_CLOSED) != 0L;
+    }
+
+    private boolean isWriterClosed()
+    {
+        return getCounter(OFFSET_CLOSED) != 0L;
+    }
+
+    /**
+     * Back off while waiting for the other side of the ring.
+     *
+     * @param spins number of times we've already waited
+     *
+     * @return updated count
+     */
+    private static int pause(int spins)
+    {
+        if (spins < 100) {
+            Thread.onSpinWait();
+        } else if (spins < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(Math.min(MAX_PARK_NANOS,
+                                           1000L * (spins - 199)));
+        }
+
+        return spins + 1;
+    }
+
+    /**
+     * Get the reading end of the ring.  Only one reader may be used.
+     *
+     * @return blocking readable channel
+     */
+    public ReadableByteChannel reader()
+    {
+        return new Reader();
+    }
+
+    /**
+     * Get the writing end of the ring.  Only one writer may be used.
+     *
+     * @return blocking writable channel
+     */
+    public WritableByteChannel writer()
+    {
+        return new Writer();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MappedRing[" + file + " cap " + capacity + " wr " +
+            getCounter(OFFSET_WRITTEN) + " rd " + getCounter(OFFSET_READ) +
+            (isWriterClosed() ? " wclosed" : "") +
+            (isReaderClosed() ? " rclosed" : "") + "]";
+    }
+
+    /**
+     * Reading end.  Blocks until at least one byte is available and returns
+     * -1 once the writer has closed and the ring is empty.  Closing the
+     * reader from another thread wakes a blocked <tt>read()</tt>.
+     */
+    class Reader
+        implements ReadableByteChannel
+    {
+        private volatile boolean open = true;
+        private long numRead = getCounter(OFFSET_READ);
+
+        @Override
+        public void close()
+        {
+            if (open) {
+                open = false;
+                LONG_VIEW.setRelease(map, OFFSET_READER_CLOSED, 1L);
+            }
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return open;
+        }
+
+        @Override
+        public int read(ByteBuffer dst)
+            throws IOException
+        {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+
+            long avail;
+            int spins = 0;
+            while (true) {
+                avail = getCounter(OFFSET_WRITTEN) - numRead;
+                if (avail > 0) {
+                    break;
+                }
+
+                // check the flag before rechecking the counter so data
+                // written just before close isn't lost
+                if (isWriterClosed()) {
+                    if (getCounter(OFFSET_WRITTEN) - numRead <= 0) {
+                        return -1;
+                    }
+                    continue;
+                }
+
+                if (!open) {
+                    throw new AsynchronousCloseException();
+                }
+
+                spins = pause(spins);
+            }
+
+            final int len = (int) Math.min(avail, dst.remaining());
+            final int start = (int) (numRead & mask);
+            final int first = Math.min(len, capacity - start);
+
+            ByteBuffer src = data.duplicate();
+            src.limit(start + first).position(start);
+            dst.put(src);
+
+            if (first < len) {
+                src.limit(len - first).position(0);
+                dst.put(src);
+            }
+
+            numRead += len;
+            LONG_VIEW.setRelease(map, OFFSET_READ, numRead);
+
+            return len;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Reader[" + MappedRing.this.toString() + "]";
+        }
+    }
+
+    /**
+     * Writing end.  Each write blocks until all the bytes have been
+     * copied into the ring, and fails if the reader closes first.
+     */
+    class Writer
+        implements WritableByteChannel
+    {
+        private volatile boolean open = true;
+        private long numWritten = getCounter(OFFSET_WRITTEN);
+
+        @Override
+        public void close()
+        {
+            if (open) {
+                open = false;
+                LONG_VIEW.setRelease(map, OFFSET_CLOSED, 1L);
+            }
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return open;
+        }
+
+        @Override
+        public int write(ByteBuffer src)
+            throws IOException
+        {
+            if (!open) {
+                throw new ClosedChannelException();
+            } else if (isReaderClosed()) {
+                throw new IOException("Reader closed " + file);
+            }
+
+            final int total = src.remaining();
+
+            int spins = 0;
+            while (src.hasRemaining()) {
+                final long free =
+                    capacity - (numWritten - getCounter(OFFSET_READ));
+                if (free <= 0) {
+                    if (!open) {
+                        throw new AsynchronousCloseException();
+                    } else if (isReaderClosed()) {
+                        throw new IOException("Reader closed " + file);
+                    }
+
+                    spins = pause(spins);
+                    continue;
+                }
+                spins = 0;
+
+                final int len = (int) Math.min(free, src.remaining());
+                final int start = (int) (numWritten & mask);
+                final int first = Math.min(len, capacity - start);
+
+                ByteBuffer dst = data.duplicate();
+                dst.position(start);
+
+                ByteBuffer chunk = src.slice();
+                chunk.limit(first);
+                dst.put(chunk);
+
+                if (first < len) {
+                    chunk = src.slice();
+                    chunk.limit(len).position(first);
+                    dst.position(0);
+                    dst.put(chunk);
+                }
+
+                src.position(src.position() + len);
+
+                numWritten += len;
+                LONG_VIEW.setRelease(map, OFFSET_WRITTEN, numWritten);
+            }
+
+            return total;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Writer[" + MappedRing.this.toString() + "]";
+        }
+    }
+}
@@ -95,4 +95,17 @@ public final class MinimalServer
     {
         return port;
     }
+
+    /**
+     * Set the receive buffer size used for accepted sockets.
+     *
+     * @param size buffer size in bytes
+     *
+     * @throws IOException if the option cannot be set
+     */
+    public void setReceiveBufferSize(int size)
+        throws IOException
+    {
+        ssChan.socket().setReceiveBufferSize(size);
+    }
 }
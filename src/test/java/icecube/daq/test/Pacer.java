@@ -0,0 +1,21 @@
+package icecube.daq.test;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Control how quickly a <tt>PayloadConsumer</tt> sends payloads.
+ */
+public interface Pacer
+{
+    /**
+     * Wait (if necessary) before the next payload is sent.
+     *
+     * @param buf payload which is about to be sent
+     */
+    void pace(ByteBuffer buf);
+
+    /**
+     * Forget any state from a previous run.
+     */
+    void reset();
+}
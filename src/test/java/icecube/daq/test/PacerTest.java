@@ -0,0 +1,179 @@
+package icecube.daq.test;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ * Check the pacing strategies and the names used to choose them.
+ */
+public class PacerTest
+    extends TestCase
+{
+    /** Number of DAQ ticks in a millisecond */
+    private static final long TICKS_PER_MSEC = 10000000L;
+
+    public PacerTest(String name)
+    {
+        super(name);
+    }
+
+    private static ByteBuffer buildPayload(long utc)
+    {
+        ByteBuffer buf = ByteBuffer.allocate(16);
+        buf.putInt(0, buf.capacity());
+        buf.putLong(UTCPacer.ENVELOPE_OFFSET, utc);
+        return buf;
+    }
+
+    /**
+     * Queue whose depth drops by a fixed amount each time it is checked.
+     */
+    static class DrainingGauge
+        implements QueueDepthPacer.Gauge
+    {
+        long depth;
+        long step;
+        int numChecks;
+
+        DrainingGauge(long depth, long step)
+        {
+            this.depth = depth;
+            this.step = step;
+        }
+
+        @Override
+        public long getDepth()
+        {
+            numChecks++;
+
+            final long cur = depth;
+            depth = Math.max(0L, depth - step);
+            return cur;
+        }
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(PacerTest.class);
+    }
+
+    public void testCreatePacer()
+    {
+        assertSame("Bad default pacer", YieldPacer.INSTANCE,
+                   PayloadConsumer.createPacer(null, 8));
+        assertSame("Bad yield pacer", YieldPacer.INSTANCE,
+                   PayloadConsumer.createPacer("yield", 8));
+        assertNull("Bad unpaced pacer",
+                   PayloadConsumer.createPacer("none", 8));
+
+        Pacer rate = PayloadConsumer.createPacer("rate:250", 8);
+        assertEquals("Bad rate pacer", "FixedRatePacer[250.0/s]",
+                     rate.toString());
+
+        Pacer utc = PayloadConsumer.createPacer("utc", 24);
+        assertEquals("Bad UTC pacer", "UTCPacer[@24*1.0]", utc.toString());
+
+        Pacer fast = PayloadConsumer.createPacer("utc:4", 8);
+        assertEquals("Bad fast UTC pacer", "UTCPacer[@8*4.0]",
+                     fast.toString());
+
+        final String[] bad = { "rate", "rate:abc", "utc:x", "queue", "fast" };
+        for (int i = 0; i < bad.length; i++) {
+            try {
+                PayloadConsumer.createPacer(bad[i], 8);
+                fail("Pacer \"" + bad[i] + "\" should not be accepted");
+            } catch (Error err) {
+                // expected
+            }
+        }
+    }
+
+    public void testFixedRate()
+    {
+        FixedRatePacer pacer = new FixedRatePacer(1000.0);
+
+        ByteBuffer buf = buildPayload(1L);
+
+        final long start = System.nanoTime();
+        for (int i = 0; i <= 50; i++) {
+            pacer.pace(buf);
+        }
+        final long msec = (System.nanoTime() - start) / 1000000L;
+
+        assertTrue("51 payloads at 1000/s took only " + msec + "ms",
+                   msec >= 50);
+    }
+
+    public void testUTC()
+    {
+        // 1 second of payload time replayed 10 times faster
+        UTCPacer pacer = new UTCPacer(UTCPacer.ENVELOPE_OFFSET, 10.0);
+
+        final long first = 123456789L;
+
+        final long start = System.nanoTime();
+        pacer.pace(buildPayload(first));
+        pacer.pace(buildPayload(first + 500L * TICKS_PER_MSEC));
+        pacer.pace(buildPayload(first + 1000L * TICKS_PER_MSEC));
+        final long msec = (System.nanoTime() - start) / 1000000L;
+
+        assertTrue("1 second at 10x took only " + msec + "ms", msec >= 100);
+
+        // stop messages and earlier payloads are sent at once
+        pacer.pace(buildPayload(Long.MAX_VALUE));
+        pacer.pace(buildPayload(first));
+        pacer.pace(ByteBuffer.allocate(4));
+    }
+
+    public void testQueueDepthBackoff()
+    {
+        DrainingGauge gauge = new DrainingGauge(100L, 10L);
+        QueueDepthPacer pacer = new QueueDepthPacer(gauge, 50L, 10L, 3);
+
+        ByteBuffer buf = buildPayload(1L);
+
+        pacer.pace(buf);
+        pacer.pace(buf);
+        assertEquals("Queue checked before the check interval", 0,
+                     gauge.numChecks);
+
+        pacer.pace(buf);
+        assertEquals("Bad number of backoffs", 1L,
+                     pacer.getNumberOfBackoffs());
+        assertTrue("Queue was not drained to the low-water mark",
+                   gauge.depth <= 10L);
+
+        for (int i = 0; i < 3; i++) {
+            pacer.pace(buf);
+        }
+        assertEquals("Backed off from a short queue", 1L,
+                     pacer.getNumberOfBackoffs());
+    }
+
+    public void testQueueDepthGivesUp()
+    {
+        DrainingGauge gauge = new DrainingGauge(100L, 0L);
+        QueueDepthPacer pacer = new QueueDepthPacer(gauge, 50L, 10L, 1);
+        pacer.setMaxWait(50L);
+
+        final long start = System.nanoTime();
+        try {
+            pacer.pace(buildPayload(1L));
+            fail("Pacer should give up on a stuck queue");
+        } catch (Error err) {
+            // expected
+        }
+        final long msec = (System.nanoTime() - start) / 1000000L;
+
+        assertTrue("Gave up after only " + msec + "ms", msec >= 50);
+    }
+
+    public static void main(String[] args)
+    {
+        TestRunner.run(suite());
+    }
+}
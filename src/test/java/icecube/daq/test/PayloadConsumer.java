@@ -1,19 +1,40 @@
 package icecube.daq.test;
 
+import icecube.daq.payload.IByteBufferCache;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SelectableChannel;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 public abstract class PayloadConsumer
     implements Runnable
 {
+    /** System property which chooses the pacer used by every consumer */
+    public static final String PACER_PROPERTY = "icecube.daq.test.pacer";
+
+    /** Default size of the reusable read buffer used in pooled mode */
+    static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
     private String inputName;
     private ReadableByteChannel chanIn;
-    private Thread thread;
+    private volatile boolean running;
     private int numWritten;
     private PayloadValidator validator;
     private int limit;
+    private Pacer pacer;
+    /** If <tt>false</tt>, <tt>pacer</tt> is chosen by the system property */
+    private boolean pacerSet;
+
+    private IByteBufferCache bufCache;
+    private int chunkSize;
+    private ByteBuffer chunk;
+    private ByteBuffer leased;
+    private Set<ByteBuffer> held =
+        Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
 
     public PayloadConsumer(String inputName, ReadableByteChannel chanIn)
     {
@@ -30,8 +51,59 @@ public abstract class PayloadConsumer
 
     abstract ByteBuffer buildStopMessage(ByteBuffer stopBuf);
 
+    /**
+     * Build the pacer named by a <tt>icecube.daq.test.pacer</tt> value:
+     * <tt>yield</tt> (the default), <tt>none</tt>,
+     * <tt>rate:</tt><i>N</i> to send <i>N</i> payloads per second, or
+     * <tt>utc</tt> or <tt>utc:</tt><i>S</i> to replay payloads at the
+     * rate implied by their times, sped up <i>S</i> times.  Queue-depth
+     * pacing needs a gauge, so it can only be chosen with
+     * <tt>setPacer()</tt>.
+     *
+     * @param spec pacer name (<tt>null</tt> or empty for the default)
+     * @param utcOffset offset of the UTC time in each payload
+     *
+     * @return new pacer (<tt>null</tt> for no pacing)
+     */
+    static Pacer createPacer(String spec, int utcOffset)
+    {
+        if (spec == null || spec.length() == 0 || spec.equals("yield")) {
+            return YieldPacer.INSTANCE;
+        } else if (spec.equals("none")) {
+            return null;
+        }
+
+        final int colon = spec.indexOf(':');
+        final String name = (colon < 0 ? spec : spec.substring(0, colon));
+        final String arg = (colon < 0 ? null : spec.substring(colon + 1));
+
+        try {
+            if (name.equals("rate") && arg != null) {
+                return new FixedRatePacer(Double.parseDouble(arg));
+            } else if (name.equals("utc")) {
+                return new UTCPacer(utcOffset, arg == null ? 1.0 :
+                                    Double.parseDouble(arg));
+            }
+        } catch (NumberFormatException nfe) {
+            // fall through to the error below
+        }
+
+        throw new Error("Unknown pacer \"" + spec + "\"");
+    }
+
     abstract void finishThreadCleanup();
 
+    /**
+     * Get the offset of the UTC time in each payload, used when pacing
+     * by payload time.
+     *
+     * @return UTC offset
+     */
+    int getUTCOffset()
+    {
+        return UTCPacer.ENVELOPE_OFFSET;
+    }
+
     public int getNumberWritten()
     {
         return numWritten;
@@ -39,49 +111,262 @@ public abstract class PayloadConsumer
 
     public boolean isRunning()
     {
-        return thread != null;
+        return running;
     }
 
     abstract boolean isStopMessage(ByteBuffer buf);
 
-    @Override
-    public void run()
+    /**
+     * Read the next payload using a freshly allocated buffer.
+     *
+     * @return next payload, or <tt>null</tt> if the input is exhausted
+     */
+    private ByteBuffer readAllocated(ByteBuffer lenBuf)
     {
-        ByteBuffer lenBuf = ByteBuffer.allocate(4);
+        lenBuf.rewind();
+        int numBytes;
+        try {
+            numBytes = chanIn.read(lenBuf);
+        } catch (IOException ioe) {
+            throw new Error("Couldn't read length from " + inputName, ioe);
+        }
 
-        boolean sendStop = true;
-        while (true) {
-            lenBuf.rewind();
-            int numBytes;
+        if (numBytes < 4) {
+            return null;
+        }
+
+        final int len = lenBuf.getInt(0);
+        if (len < 4) {
+            throw new Error("Bad length " + len);
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        buf.putInt(len);
+
+        while (buf.position() != len) {
+            int lenIn;
             try {
-                numBytes = chanIn.read(lenBuf);
+                lenIn = chanIn.read(buf);
             } catch (IOException ioe) {
-                throw new Error("Couldn't read length from " + inputName, ioe);
+                throw new Error("Couldn't read data from " + inputName,
+                                ioe);
             }
+        }
 
-            if (numBytes < 4) {
-                break;
+        buf.flip();
+
+        return buf;
+    }
+
+    /**
+     * Read the next payload from the pooled chunk buffer, refilling the
+     * chunk with a single large read when it runs dry.  Payloads which fit
+     * in the chunk are returned as slices of it; larger payloads are
+     * copied into a buffer leased from the cache.
+     *
+     * @return next payload, or <tt>null</tt> if the input is exhausted
+     */
+    private ByteBuffer readPooled()
+    {
+        while (true) {
+            final int avail = chunk.remaining();
+            if (avail >= 4) {
+                final int len = chunk.getInt(chunk.position());
+                if (len < 4) {
+                    throw new Error("Bad length " + len);
+                }
+
+                if (len <= avail) {
+                    ByteBuffer buf = chunk.slice();
+                    buf.limit(len);
+                    chunk.position(chunk.position() + len);
+
+                    if (isRetainingPayloads()) {
+                        // chunk will be overwritten, so hand out a copy
+                        ByteBuffer copy = bufCache.acquireBuffer(len);
+                        copy.clear();
+                        copy.put(buf);
+                        copy.flip();
+                        hold(copy);
+                        return copy;
+                    }
+
+                    return buf;
+                }
+
+                if (len > chunk.capacity()) {
+                    return readOversized(len);
+                }
             }
 
-            final int len = lenBuf.getInt(0);
-            if (len < 4) {
-                throw new Error("Bad length " + len);
+            chunk.compact();
+            int lenIn;
+            try {
+                lenIn = chanIn.read(chunk);
+            } catch (IOException ioe) {
+                throw new Error("Couldn't read data from " + inputName,
+                                ioe);
             }
+            chunk.flip();
 
-            ByteBuffer buf = ByteBuffer.allocate(len);
-            buf.putInt(len);
+            if (lenIn < 0) {
+                if (!chunk.hasRemaining()) {
+                    return null;
+                }
 
-            while (buf.position() != len) {
-                int lenIn;
-                try {
-                    lenIn = chanIn.read(buf);
-                } catch (IOException ioe) {
-                    throw new Error("Couldn't read data from " + inputName,
-                                    ioe);
+                final int partial = chunk.remaining();
+                if (partial < 4) {
+                    throw new Error("Got " + partial + " of 4 length" +
+                                    " bytes before " + inputName +
+                                    " closed");
                 }
+
+                throw new Error("Got " + partial + " of " +
+                                chunk.getInt(chunk.position()) +
+                                " bytes before " + inputName + " closed");
             }
+        }
+    }
 
-            buf.flip();
+    /**
+     * Read a payload which is too large for the chunk buffer into a
+     * buffer leased from the cache.
+     *
+     * @param len payload length
+     *
+     * @return leased buffer holding the payload
+     */
+    private ByteBuffer readOversized(int len)
+    {
+        ByteBuffer buf = bufCache.acquireBuffer(len);
+        buf.clear();
+        buf.limit(len);
+        buf.put(chunk);
+
+        while (buf.hasRemaining()) {
+            int lenIn;
+            try {
+                lenIn = chanIn.read(buf);
+            } catch (IOException ioe) {
+                throw new Error("Couldn't read data from " + inputName,
+                                ioe);
+            }
+
+            if (lenIn < 0) {
+                throw new Error("Got " + buf.position() + " of " + len +
+                                " bytes before " + inputName + " closed");
+            }
+        }
+
+        buf.flip();
+
+        if (isRetainingPayloads()) {
+            hold(buf);
+        } else {
+            leased = buf;
+        }
+        return buf;
+    }
+
+    /**
+     * Remember a leased buffer which <tt>write()</tt> will hang onto.
+     *
+     * @param buf leased buffer
+     */
+    private void hold(ByteBuffer buf)
+    {
+        synchronized (held) {
+            held.add(buf);
+        }
+    }
+
+    /**
+     * Does this consumer keep payloads after <tt>write()</tt> returns?
+     * If so, pooled payloads are copied into their own leased buffers,
+     * and the subclass must pass each one to <tt>releasePayload()</tt>
+     * once it is finished with it.
+     *
+     * @return <tt>true</tt> if payloads are kept past <tt>write()</tt>
+     */
+    boolean isRetainingPayloads()
+    {
+        return false;
+    }
+
+    /**
+     * Read the next payload from the input channel.
+     *
+     * @param lenBuf scratch buffer for the length field
+     *
+     * @return next payload, or <tt>null</tt> if the input is exhausted
+     */
+    ByteBuffer readPayload(ByteBuffer lenBuf)
+    {
+        if (chunk == null) {
+            return readAllocated(lenBuf);
+        }
+
+        return readPooled();
+    }
+
+    /**
+     * Give back a payload kept past <tt>write()</tt>.  Buffers which were
+     * not leased from the cache are ignored.
+     *
+     * @param buf payload buffer
+     */
+    void releasePayload(ByteBuffer buf)
+    {
+        final boolean found;
+        synchronized (held) {
+            found = held.remove(buf);
+        }
+
+        if (found) {
+            bufCache.returnBuffer(buf);
+        }
+    }
+
+    /**
+     * Give back any buffer leased for the most recent payload.
+     */
+    private void releasePayload()
+    {
+        if (leased != null) {
+            bufCache.returnBuffer(leased);
+            leased = null;
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        ByteBuffer lenBuf = ByteBuffer.allocate(4);
+
+        if (!pacerSet) {
+            pacer = createPacer(System.getProperty(PACER_PROPERTY),
+                                getUTCOffset());
+            pacerSet = true;
+        }
+        if (pacer != null) {
+            pacer.reset();
+        }
+
+        if (bufCache != null) {
+            chunk = bufCache.acquireBuffer(chunkSize);
+            chunk.clear();
+            chunk.limit(0);
+        }
+
+        boolean sendStop = true;
+        while (true) {
+            ByteBuffer buf = readPayload(lenBuf);
+
+            if (buf == null) {
+                break;
+            }
+
+            final int len = buf.limit();
 
             if (validator != null) {
                 validator.validate(buf);
@@ -91,6 +376,13 @@ public abstract class PayloadConsumer
                 }
             }
 
+            if (pacer != null) {
+                pacer.pace(buf);
+            }
+
+            // write() may hand the buffer back to its cache
+            final boolean isStop = isStopMessage(buf);
+
             try {
                 write(buf);
             } catch (IOException ioe) {
@@ -98,10 +390,9 @@ public abstract class PayloadConsumer
                                 inputName, ioe);
             }
 
-            // don't overwhelm other threads
-            Thread.yield();
+            releasePayload();
 
-            if (isStopMessage(buf)) {
+            if (isStop) {
                 sendStop = false;
                 break;
             }
@@ -119,6 +410,11 @@ public abstract class PayloadConsumer
             // ignore errors on close
         }
 
+        if (chunk != null) {
+            bufCache.returnBuffer(chunk);
+            chunk = null;
+        }
+
         if (sendStop) {
             ByteBuffer buf = buildStopMessage(null);
             if (buf != null) {
@@ -133,7 +429,40 @@ public abstract class PayloadConsumer
 
         finishThreadCleanup();
 
-        thread = null;
+        running = false;
+    }
+
+    /**
+     * Read input in large chunks from buffers leased from <tt>cache</tt>
+     * instead of allocating a new buffer for every payload.
+     * Payloads handed to <tt>write()</tt> are only valid until it returns
+     * unless <tt>isRetainingPayloads()</tt> is <tt>true</tt>.
+     *
+     * @param cache buffer cache (<tt>null</tt> to allocate per payload)
+     */
+    void setBufferCache(IByteBufferCache cache)
+    {
+        setBufferCache(cache, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Read input in <tt>chunkSize</tt>-byte pieces from buffers leased from
+     * <tt>cache</tt>.
+     *
+     * @param cache buffer cache (<tt>null</tt> to allocate per payload)
+     * @param chunkSize size of the reusable read buffer
+     */
+    void setBufferCache(IByteBufferCache cache, int chunkSize)
+    {
+        if (isRunning()) {
+            throw new Error("Cannot change buffer cache while " + inputName +
+                            " is running");
+        } else if (chunkSize < 4) {
+            throw new Error("Bad chunk size " + chunkSize);
+        }
+
+        this.bufCache = cache;
+        this.chunkSize = chunkSize;
     }
 
     void setLimit(int limit)
@@ -141,6 +470,26 @@ public abstract class PayloadConsumer
         this.limit = limit;
     }
 
+    /**
+     * Set the strategy used to space out payloads.  By default the pacer
+     * is chosen by the <tt>icecube.daq.test.pacer</tt> system property,
+     * and if that is unset the thread yields before each payload so it
+     * doesn't overwhelm other threads.
+     *
+     * @param pacer pacing strategy (<tt>null</tt> to send as fast as
+     *              possible)
+     */
+    public void setPacer(Pacer pacer)
+    {
+        if (isRunning()) {
+            throw new Error("Cannot change pacer while " + inputName +
+                            " is running");
+        }
+
+        this.pacer = pacer;
+        pacerSet = true;
+    }
+
     void setValidator(PayloadValidator validator)
     {
         this.validator = validator;
@@ -150,9 +499,8 @@ public abstract class PayloadConsumer
     {
         numWritten = 0;
 
-        thread = new Thread(this);
-        thread.setName(inputName);
-        thread.start();
+        running = true;
+        HarnessThreads.start(inputName, this);
     }
 
     abstract void write(ByteBuffer buf)
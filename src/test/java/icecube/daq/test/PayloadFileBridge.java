@@ -4,9 +4,12 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.Timer;
+import java.util.TimerTask;
 
 public class PayloadFileBridge
     extends FileBridge
@@ -19,6 +22,21 @@ public class PayloadFileBridge
     private int writeDelay;
     private int writeCount;
 
+    private int batchMaxPayloads;
+    private long batchMaxBytes;
+    private long batchMaxNanos;
+
+    private ByteBuffer[] batch;
+    private int batchCount;
+    private long batchBytes;
+    private long batchStart;
+    /** Flushes stale batches; guarded by <tt>this</tt> */
+    private Timer batchTimer;
+    /** First flush failure seen by <tt>batchTimer</tt> */
+    private IOException flushFailure;
+
+    private long numWriteCalls;
+
     public PayloadFileBridge(File dataFile, WritableByteChannel chanOut)
         throws IOException
     {
@@ -56,9 +74,36 @@ public class PayloadFileBridge
         return stopBuf;
     }
 
+    /**
+     * Rethrow a failure from a flush made by the batch timer.
+     */
+    private void checkFlushFailure()
+        throws IOException
+    {
+        if (flushFailure != null) {
+            throw new IOException("Couldn't flush batch from " + this,
+                                  flushFailure);
+        }
+    }
+
     @Override
     void finishThreadCleanup()
     {
+        synchronized (this) {
+            if (batchTimer != null) {
+                batchTimer.cancel();
+                batchTimer = null;
+            }
+
+            try {
+                checkFlushFailure();
+                flush();
+            } catch (IOException ioe) {
+                throw new Error("Couldn't flush final batch from " + this,
+                                ioe);
+            }
+        }
+
         try {
             chanOut.close();
         } catch (IOException ioe) {
@@ -68,6 +113,91 @@ public class PayloadFileBridge
         chanOut = null;
     }
 
+    /**
+     * Write all batched payloads with as few gathering writes as possible.
+     */
+    private void flush()
+        throws IOException
+    {
+        if (batchCount == 0) {
+            return;
+        }
+
+        if (chanOut instanceof GatheringByteChannel) {
+            GatheringByteChannel gather = (GatheringByteChannel) chanOut;
+
+            int first = 0;
+            while (first < batchCount) {
+                gather.write(batch, first, batchCount - first);
+                numWriteCalls++;
+
+                while (first < batchCount && !batch[first].hasRemaining()) {
+                    first++;
+                }
+            }
+        } else {
+            for (int i = 0; i < batchCount; i++) {
+                writeFully(batch[i]);
+            }
+        }
+
+        for (int i = 0; i < batchCount; i++) {
+            releasePayload(batch[i]);
+            batch[i] = null;
+        }
+
+        batchCount = 0;
+        batchBytes = 0;
+    }
+
+    /**
+     * Flush the current batch if it has been waiting too long.  Called
+     * from the batch timer, so a failure is saved for the next
+     * <tt>write()</tt> and the timer is stopped.
+     */
+    private synchronized void flushIfStale()
+    {
+        if (flushFailure == null && batchCount > 0 &&
+            System.nanoTime() - batchStart >= batchMaxNanos)
+        {
+            try {
+                flush();
+            } catch (IOException ioe) {
+                flushFailure = ioe;
+                if (batchTimer != null) {
+                    batchTimer.cancel();
+                    batchTimer = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the number of write calls made on the output channel
+     *
+     * @return number of writes
+     */
+    public long getNumberOfWriteCalls()
+    {
+        return numWriteCalls;
+    }
+
+    /**
+     * Are payloads being collected for gathering writes?
+     *
+     * @return <tt>true</tt> if payloads are batched
+     */
+    boolean isBatching()
+    {
+        return batch != null;
+    }
+
+    @Override
+    boolean isRetainingPayloads()
+    {
+        return isBatching();
+    }
+
     @Override
     boolean isStopMessage(ByteBuffer buf)
     {
@@ -75,6 +205,37 @@ public class PayloadFileBridge
             buf.getInt(0) == STOP_MESSAGE_LENGTH;
     }
 
+    /**
+     * Collect payloads and send them with a single gathering write.
+     * A batch is sent as soon as any of the limits is reached, and
+     * stop messages are always sent immediately.
+     *
+     * @param maxPayloads maximum number of payloads in a batch
+     * @param maxBytes maximum number of bytes in a batch
+     *                 (<tt>0</tt> for no limit)
+     * @param maxMsec longest time a payload may wait in a batch
+     *                (<tt>0</tt> for no limit)
+     */
+    public void setBatching(int maxPayloads, long maxBytes, int maxMsec)
+    {
+        if (isRunning()) {
+            throw new Error("Cannot change batching while " + this +
+                            " is running");
+        } else if (maxPayloads < 1) {
+            throw new Error("Bad maximum batch size " + maxPayloads);
+        }
+
+        batchMaxPayloads = maxPayloads;
+        batchMaxBytes = maxBytes;
+        batchMaxNanos = maxMsec * 1000000L;
+
+        if (maxPayloads == 1) {
+            batch = null;
+        } else {
+            batch = new ByteBuffer[maxPayloads];
+        }
+    }
+
     /**
      * Sleep for a bit after writing a set of payloads
      *
@@ -100,10 +261,54 @@ public class PayloadFileBridge
             }
         }
 
-        int lenOut = chanOut.write(buf);
-        if (lenOut != buf.limit()) {
-            throw new Error("Expected to write " + buf.limit() +
-                            " bytes, not " + lenOut);
+        if (batch == null) {
+            writeFully(buf);
+            return;
+        }
+
+        synchronized (this) {
+            checkFlushFailure();
+
+            if (batchCount == 0) {
+                batchStart = System.nanoTime();
+
+                if (batchTimer == null && batchMaxNanos > 0) {
+                    final long msec = Math.max(1L, batchMaxNanos / 1000000L);
+
+                    batchTimer = new Timer(toString() + "-flush", true);
+                    batchTimer.schedule(new TimerTask() {
+                            public void run() {
+                                flushIfStale();
+                            }
+                        }, msec, msec);
+                }
+            }
+
+            batch[batchCount++] = buf;
+            batchBytes += buf.remaining();
+
+            if (batchCount >= batchMaxPayloads ||
+                (batchMaxBytes > 0 && batchBytes >= batchMaxBytes) ||
+                (batchMaxNanos > 0 &&
+                 System.nanoTime() - batchStart >= batchMaxNanos) ||
+                isStopMessage(buf))
+            {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Write the entire buffer, retrying after short writes.
+     *
+     * @param buf buffer to write
+     */
+    private void writeFully(ByteBuffer buf)
+        throws IOException
+    {
+        while (buf.hasRemaining()) {
+            chanOut.write(buf);
+            numWriteCalls++;
         }
     }
 }
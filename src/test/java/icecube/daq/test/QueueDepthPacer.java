@@ -0,0 +1,178 @@
+package icecube.daq.test;
+
+import icecube.daq.monitoring.SenderMXBean;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Send payloads as fast as possible until a downstream queue gets too
+ * deep, then back off until it drains.  If the queue doesn't drain within
+ * the maximum wait, the downstream component is assumed to be stuck and
+ * <tt>pace()</tt> fails rather than hanging the bridge thread.
+ */
+public class QueueDepthPacer
+    implements Pacer
+{
+    /** Shortest pause while waiting for the queue to drain */
+    private static final long MIN_BACKOFF_NANOS = 50000L;
+    /** Longest pause while waiting for the queue to drain */
+    private static final long MAX_BACKOFF_NANOS = 10000000L;
+
+    /** Default limit on the time spent waiting for the queue to drain */
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 60000L;
+
+    /**
+     * Source of the current queue depth.
+     */
+    public interface Gauge
+    {
+        /**
+         * Get the number of entries waiting in the queue.
+         *
+         * @return queue depth
+         */
+        long getDepth();
+    }
+
+    private Gauge gauge;
+    private long highWater;
+    private long lowWater;
+    private int checkInterval;
+    private long maxWaitNanos = DEFAULT_MAX_WAIT_MILLIS * 1000000L;
+
+    private int numPaced;
+    private long numBackoffs;
+    private long backoffNanos;
+
+    /**
+     * Create a queue-depth pacer.
+     *
+     * @param gauge queue being watched
+     * @param highWater start backing off when the depth exceeds this
+     * @param lowWater resume sending when the depth falls to this
+     * @param checkInterval number of payloads between queue checks
+     */
+    public QueueDepthPacer(Gauge gauge, long highWater, long lowWater,
+                           int checkInterval)
+    {
+        if (gauge == null) {
+            throw new Error("Gauge cannot be null");
+        } else if (lowWater < 0 || lowWater > highWater) {
+            throw new Error("Bad low/high water marks " + lowWater + "/" +
+                            highWater);
+        } else if (checkInterval < 1) {
+            throw new Error("Bad check interval " + checkInterval);
+        }
+
+        this.gauge = gauge;
+        this.highWater = highWater;
+        this.lowWater = lowWater;
+        this.checkInterval = checkInterval;
+    }
+
+    /**
+     * Build a gauge which watches a string hub's queued hits.
+     *
+     * @param sender string hub sender monitor
+     *
+     * @return hit queue gauge
+     */
+    public static Gauge hitQueue(final SenderMXBean sender)
+    {
+        return new Gauge() {
+            public long getDepth()
+            {
+                return sender.getNumHitsQueued();
+            }
+        };
+    }
+
+    /**
+     * Get the number of times this pacer waited for the queue to drain.
+     *
+     * @return number of backoffs
+     */
+    public long getNumberOfBackoffs()
+    {
+        return numBackoffs;
+    }
+
+    /**
+     * Get the total time spent waiting for the queue to drain.
+     *
+     * @return nanoseconds spent backing off
+     */
+    public long getBackoffNanos()
+    {
+        return backoffNanos;
+    }
+
+    @Override
+    public void pace(ByteBuffer buf)
+    {
+        if (++numPaced < checkInterval) {
+            return;
+        }
+        numPaced = 0;
+
+        if (gauge.getDepth() <= highWater) {
+            return;
+        }
+
+        numBackoffs++;
+
+        final long start = System.nanoTime();
+
+        long pause = MIN_BACKOFF_NANOS;
+        while (true) {
+            final long depth = gauge.getDepth();
+            if (depth <= lowWater) {
+                break;
+            }
+
+            final long waited = System.nanoTime() - start;
+            if (waited >= maxWaitNanos) {
+                backoffNanos += waited;
+                throw new Error("Queue depth " + depth + " is still above " +
+                                lowWater + " after " + waited / 1000000L +
+                                "ms");
+            }
+
+            LockSupport.parkNanos(Math.min(pause, maxWaitNanos - waited));
+            if (pause < MAX_BACKOFF_NANOS) {
+                pause = Math.min(pause * 2, MAX_BACKOFF_NANOS);
+            }
+        }
+
+        backoffNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Set the longest time <tt>pace()</tt> waits for the queue to drain.
+     *
+     * @param millis maximum wait in milliseconds
+     */
+    public void setMaxWait(long millis)
+    {
+        if (millis <= 0) {
+            throw new Error("Bad maximum wait " + millis);
+        }
+
+        maxWaitNanos = millis * 1000000L;
+    }
+
+    @Override
+    public void reset()
+    {
+        numPaced = 0;
+        numBackoffs = 0;
+        backoffNanos = 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "QueueDepthPacer[" + lowWater + "-" + highWater + "]";
+    }
+}
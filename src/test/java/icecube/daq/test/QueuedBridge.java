@@ -0,0 +1,443 @@
+package icecube.daq.test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Payload bridge with an explicit bounded queue between the thread which
+ * reads payloads and the thread which writes them, so backpressure from
+ * the downstream reader shows up as queue depth and blocked time.
+ * If a <tt>LinkProfile</tt> is set, the output thread also emulates its
+ * latency, bandwidth cap and reordering.
+ */
+public class QueuedBridge
+    extends PayloadFileBridge
+{
+    private String name;
+    private ArrayBlockingQueue<Entry> queue;
+    private Drainer drainer;
+    private LinkProfile profile;
+    private LinkEmulator emulator;
+
+    private int highWater;
+    private long numQueued;
+    private long numBlocked;
+    private long blockedNanos;
+    private LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * Create a queued bridge.
+     *
+     * @param name link name
+     * @param chanIn input channel
+     * @param chanOut output channel
+     * @param capacity maximum number of payloads waiting in the queue
+     */
+    public QueuedBridge(String name, ReadableByteChannel chanIn,
+                        WritableByteChannel chanOut, int capacity)
+    {
+        super(name, chanIn, chanOut);
+
+        if (capacity < 1) {
+            throw new Error("Bad queue capacity " + capacity);
+        }
+
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<Entry>(capacity);
+    }
+
+    /**
+     * Add an entry to the queue, waiting while it is full.
+     *
+     * @param entry queue entry
+     */
+    private void enqueue(Entry entry)
+    {
+        if (!queue.offer(entry)) {
+            final long start = System.nanoTime();
+            try {
+                while (!queue.offer(entry, 100, TimeUnit.MILLISECONDS)) {
+                    if (drainer.isFailed()) {
+                        throw new Error("Output thread for " + name +
+                                        " has died");
+                    }
+                }
+            } catch (InterruptedException ie) {
+                throw new Error("Interrupted while queuing " + name +
+                                " payload", ie);
+            }
+
+            synchronized (this) {
+                numBlocked++;
+                blockedNanos += System.nanoTime() - start;
+            }
+        }
+
+        final int depth = queue.size();
+        synchronized (this) {
+            if (depth > highWater) {
+                highWater = depth;
+            }
+        }
+    }
+
+    @Override
+    void finishThreadCleanup()
+    {
+        // an entry without a payload marks the end of the queue
+        enqueue(new Entry(null, System.nanoTime()));
+        drainer.waitForFinish();
+
+        super.finishThreadCleanup();
+    }
+
+    /**
+     * Get the total time the reading thread spent waiting for space.
+     *
+     * @return nanoseconds spent blocked
+     */
+    public synchronized long getBlockedNanos()
+    {
+        return blockedNanos;
+    }
+
+    /**
+     * Get the number of payloads currently waiting in the queue.
+     *
+     * @return queue depth
+     */
+    public int getDepth()
+    {
+        return queue.size();
+    }
+
+    /**
+     * Get the largest number of payloads seen waiting in the queue.
+     *
+     * @return high-water mark
+     */
+    public synchronized int getHighWater()
+    {
+        return highWater;
+    }
+
+    /**
+     * Get the histogram of times between queueing and dequeueing payloads.
+     *
+     * @return latency histogram (in nanoseconds)
+     */
+    public LatencyHistogram getLatency()
+    {
+        return latency;
+    }
+
+    /**
+     * Get the link name.
+     *
+     * @return name
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Get the number of times the reading thread found the queue full.
+     *
+     * @return number of blocked puts
+     */
+    public synchronized long getNumberBlocked()
+    {
+        return numBlocked;
+    }
+
+    /**
+     * Get the number of payloads which have been queued.
+     *
+     * @return number of queued payloads
+     */
+    public synchronized long getNumberQueued()
+    {
+        return numQueued;
+    }
+
+    /**
+     * Get the total time spent waiting for the profile's bandwidth cap.
+     *
+     * @return nanoseconds spent throttled (<tt>0</tt> if not emulated)
+     */
+    public long getThrottledNanos()
+    {
+        final LinkEmulator emu = emulator;
+        if (emu == null) {
+            return 0L;
+        }
+
+        return emu.getThrottledNanos();
+    }
+
+    /**
+     * Get a one-line summary of this link's queue statistics.
+     *
+     * @return statistics
+     */
+    public String getStatistics()
+    {
+        return name + ": depth " + getDepth() + "/" +
+            (queue.size() + queue.remainingCapacity()) + ", high " +
+            getHighWater() + ", queued " + getNumberQueued() +
+            ", blocked " + getNumberBlocked() + "x/" +
+            LatencyHistogram.formatNanos(getBlockedNanos()) + ", latency " +
+            latency.toNanosString() +
+            (emulator == null ? "" : ", throttled " +
+             LatencyHistogram.formatNanos(emulator.getThrottledNanos()));
+    }
+
+    @Override
+    boolean isRetainingPayloads()
+    {
+        return true;
+    }
+
+    /**
+     * Emulate network conditions on this link.
+     *
+     * @param profile link profile (<tt>null</tt> to pass payloads through
+     *                as quickly as possible)
+     */
+    public void setProfile(LinkProfile profile)
+    {
+        if (isRunning()) {
+            throw new Error("Cannot change profile while " + name +
+                            " is running");
+        }
+
+        this.profile = profile;
+    }
+
+    @Override
+    public void start()
+    {
+        if (profile == null) {
+            emulator = null;
+        } else {
+            emulator = new LinkEmulator(name, profile);
+        }
+
+        drainer = new Drainer();
+        HarnessThreads.start(name + "*DRAIN", drainer);
+
+        super.start();
+    }
+
+    @Override
+    void write(ByteBuffer buf)
+        throws IOException
+    {
+        enqueue(new Entry(buf, System.nanoTime()));
+
+        synchronized (this) {
+            numQueued++;
+        }
+    }
+
+    /**
+     * Write a dequeued payload to the output channel.
+     *
+     * @param buf payload
+     */
+    private void writeDequeued(ByteBuffer buf)
+        throws IOException
+    {
+        super.write(buf);
+
+        // batched payloads are released when the batch is flushed
+        if (!super.isRetainingPayloads()) {
+            releasePayload(buf);
+        }
+    }
+
+    /**
+     * Payload waiting in the queue.
+     */
+    static class Entry
+    {
+        ByteBuffer buf;
+        long queued;
+        long deadline;
+        long seq;
+
+        Entry(ByteBuffer buf, long queued)
+        {
+            this.buf = buf;
+            this.queued = queued;
+        }
+    }
+
+    /**
+     * Order emulated payloads by delivery time, then by arrival.
+     */
+    static class DeadlineComparator
+        implements Comparator<Entry>
+    {
+        @Override
+        public int compare(Entry e1, Entry e2)
+        {
+            if (e1.deadline != e2.deadline) {
+                return e1.deadline < e2.deadline ? -1 : 1;
+            }
+
+            return e1.seq < e2.seq ? -1 : (e1.seq == e2.seq ? 0 : 1);
+        }
+    }
+
+    /**
+     * Take payloads from the queue and write them to the output channel.
+     */
+    class Drainer
+        implements Runnable
+    {
+        private CountDownLatch finished = new CountDownLatch(1);
+        private volatile boolean failed;
+
+        boolean isFailed()
+        {
+            return failed;
+        }
+
+        /**
+         * Deliver payloads once their emulated deadlines have passed,
+         * holding up to a queue's worth of payloads in flight.
+         */
+        private void emulate()
+            throws InterruptedException
+        {
+            final int maxPending = queue.remainingCapacity() + queue.size();
+
+            PriorityQueue<Entry> pending =
+                new PriorityQueue<Entry>(maxPending, new DeadlineComparator());
+            long seq = 0;
+
+            while (true) {
+                Entry entry;
+                if (pending.size() == 0) {
+                    entry = queue.take();
+                } else if (pending.size() < maxPending) {
+                    entry = queue.poll();
+                } else {
+                    entry = null;
+                }
+
+                if (entry == null) {
+                    Entry head = pending.peek();
+
+                    final long remaining = head.deadline - System.nanoTime();
+                    if (remaining > 0) {
+                        if (pending.size() < maxPending) {
+                            entry = queue.poll(remaining,
+                                               TimeUnit.NANOSECONDS);
+                        } else {
+                            LockSupport.parkNanos(remaining);
+                        }
+                    }
+                }
+
+                if (entry != null) {
+                    final boolean isLast = entry.buf == null ||
+                        isStopMessage(entry.buf);
+                    entry.deadline =
+                        emulator.assignDeadline(entry.queued, isLast);
+                    entry.seq = seq++;
+                    pending.add(entry);
+                    continue;
+                }
+
+                Entry head = pending.peek();
+                if (head.deadline > System.nanoTime()) {
+                    continue;
+                }
+
+                pending.poll();
+                if (head.buf == null) {
+                    break;
+                }
+
+                emulator.throttle(head.buf.remaining());
+                latency.record(System.nanoTime() - head.queued);
+
+                try {
+                    writeDequeued(head.buf);
+                } catch (IOException ioe) {
+                    throw new Error("Couldn't write " + name + " payload",
+                                    ioe);
+                }
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                if (emulator != null) {
+                    try {
+                        emulate();
+                    } catch (InterruptedException ie) {
+                        throw new Error("Interrupted while draining " + name,
+                                        ie);
+                    }
+                    return;
+                }
+
+                while (true) {
+                    Entry entry;
+                    try {
+                        entry = queue.take();
+                    } catch (InterruptedException ie) {
+                        throw new Error("Interrupted while draining " + name,
+                                        ie);
+                    }
+
+                    if (entry.buf == null) {
+                        break;
+                    }
+
+                    latency.record(System.nanoTime() - entry.queued);
+
+                    try {
+                        writeDequeued(entry.buf);
+                    } catch (IOException ioe) {
+                        throw new Error("Couldn't write " + name +
+                                        " payload", ioe);
+                    }
+                }
+            } catch (Error err) {
+                failed = true;
+                throw err;
+            } finally {
+                finished.countDown();
+            }
+        }
+
+        void waitForFinish()
+        {
+            try {
+                finished.await();
+            } catch (InterruptedException ie) {
+                throw new Error("Interrupted while waiting for " + name +
+                                " output thread", ie);
+            }
+
+            if (failed) {
+                throw new Error("Output thread for " + name + " failed");
+            }
+        }
+    }
+}
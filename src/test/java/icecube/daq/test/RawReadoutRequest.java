@@ -0,0 +1,121 @@
+package icecube.daq.test;
+
+import icecube.daq.payload.PayloadRegistry;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read the fields of a standalone readout request payload straight from
+ * its buffer, without building any payload objects.
+ */
+final class RawReadoutRequest
+{
+    /** Offset of the readout request record */
+    private static final int RECORD_OFFSET = 16;
+    /** Offset of the request UID */
+    private static final int UID_OFFSET = RECORD_OFFSET + 2;
+    /** Offset of the number of request elements */
+    private static final int NUM_ELEMENTS_OFFSET = RECORD_OFFSET + 10;
+    /** Offset of the first request element */
+    private static final int ELEMENTS_OFFSET = RECORD_OFFSET + 14;
+
+    /** Length of a request element */
+    private static final int ELEMENT_LENGTH = 32;
+    /** Offset of the source ID within a request element */
+    private static final int ELEM_SOURCE_ID = 4;
+    /** Offset of the first time within a request element */
+    private static final int ELEM_FIRST_TIME = 8;
+    /** Offset of the last time within a request element */
+    private static final int ELEM_LAST_TIME = 16;
+
+    private RawReadoutRequest()
+    {
+    }
+
+    /**
+     * Get an element's first time.
+     *
+     * @param buf readout request
+     * @param num element number
+     *
+     * @return first time
+     */
+    static long getFirstTime(ByteBuffer buf, int num)
+    {
+        return buf.getLong(ELEMENTS_OFFSET + num * ELEMENT_LENGTH +
+                           ELEM_FIRST_TIME);
+    }
+
+    /**
+     * Get an element's last time.
+     *
+     * @param buf readout request
+     * @param num element number
+     *
+     * @return last time
+     */
+    static long getLastTime(ByteBuffer buf, int num)
+    {
+        return buf.getLong(ELEMENTS_OFFSET + num * ELEMENT_LENGTH +
+                           ELEM_LAST_TIME);
+    }
+
+    /**
+     * Get the number of request elements.
+     *
+     * @param buf readout request
+     *
+     * @return number of elements
+     */
+    static int getNumberOfElements(ByteBuffer buf)
+    {
+        return buf.getInt(NUM_ELEMENTS_OFFSET);
+    }
+
+    /**
+     * Get an element's source ID.
+     *
+     * @param buf readout request
+     * @param num element number
+     *
+     * @return source ID
+     */
+    static int getSourceID(ByteBuffer buf, int num)
+    {
+        return buf.getInt(ELEMENTS_OFFSET + num * ELEMENT_LENGTH +
+                          ELEM_SOURCE_ID);
+    }
+
+    /**
+     * Get the request UID.
+     *
+     * @param buf readout request
+     *
+     * @return UID
+     */
+    static int getUID(ByteBuffer buf)
+    {
+        return buf.getInt(UID_OFFSET);
+    }
+
+    /**
+     * Does the buffer hold a well-formed standalone readout request?
+     *
+     * @param buf buffer
+     *
+     * @return <tt>true</tt> if the fields can be read directly
+     */
+    static boolean isReadoutRequest(ByteBuffer buf)
+    {
+        final int len = buf.limit();
+        if (len < ELEMENTS_OFFSET || buf.getInt(0) != len ||
+            buf.getInt(4) != PayloadRegistry.PAYLOAD_ID_READOUT_REQUEST)
+        {
+            return false;
+        }
+
+        final int numElems = buf.getInt(NUM_ELEMENTS_OFFSET);
+        return numElems >= 0 &&
+            (long) ELEMENTS_OFFSET + (long) numElems * ELEMENT_LENGTH == len;
+    }
+}
@@ -18,9 +18,23 @@ import java.nio.channels.Pipe;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.log4j.Logger;
 
@@ -29,10 +43,43 @@ public class RequestToDataBridge
 {
     private static final Logger LOG = Logger.getLogger(RequestToDataBridge.class);
 
+    /** Maximum number of requests being worked on for each source */
+    private static final int MAX_IN_FLIGHT = 64;
+
+    /** Length of a hit record list without any hits */
+    private static final int HIT_RECORD_LIST_LENGTH = 28;
+    /** Length of an old-style readout data payload without any hits */
+    private static final int READOUT_DATA_LENGTH = 54;
+    /** Smallest response buffer */
+    private static final int MIN_BUFFER_LENGTH = 4096;
+
     private static short nextNum;
 
+    private static int numWorkers;
+    private static ExecutorService workers;
+
+    /** If non-null, requests are read into buffers leased from this cache */
+    private static IByteBufferCache requestCache;
+
+    private static HashMap<Integer, LatencyModel> latencyModels =
+        new HashMap<Integer, LatencyModel>();
+    private static LatencyModel defaultLatency;
+    private static long latencySeed;
+
+    /** Payload factories are not shared between worker threads */
+    private static ThreadLocal<PayloadFactory> localFactory =
+        new ThreadLocal<PayloadFactory>() {
+            protected PayloadFactory initialValue()
+            {
+                return new PayloadFactory(null);
+            }
+        };
+
     private ISourceID srcId;
-    private List<HitData> hitList;
+    private HitStore hits;
+    private HitIndex hitIndex;
+    /** If non-null, hits are regenerated on demand instead */
+    private HitGenerator.HubWindow window;
     private int numRcvd;
     private int numEmpty;
     private int numSent;
@@ -40,48 +87,212 @@ public class RequestToDataBridge
 
     private PayloadFactory factory;
 
+    private ExecutorService pool;
+    private ArrayBlockingQueue<Future<Response>> inFlight;
+    private ResponseWriter respWriter;
+
+    private LatencyModel latencyModel;
+    private Random latencyRng;
+
+    /** Time from request arrival to each data payload being sent */
+    private LatencyHistogram requestLatency = new LatencyHistogram();
+    /** Number of hits in each data payload */
+    private LatencyHistogram hitsPerReadout = new LatencyHistogram();
+    /** Number of bytes in each data payload */
+    private LatencyHistogram bytesPerReadout = new LatencyHistogram();
+
+    /** Response buffers which have been written and can be reused */
+    private ConcurrentLinkedQueue<ByteBuffer> spareBuffers =
+        new ConcurrentLinkedQueue<ByteBuffer>();
+    private int numAllocated;
+
     private RequestToDataBridge(ISourceID srcId, ReadableByteChannel reqIn,
-                          WritableByteChannel dataOut, List<HitData> hitList)
+                          WritableByteChannel dataOut, HitStore hits,
+                          HitIndex hitIndex)
     {
         super(srcId.toString(), reqIn, dataOut);
 
         this.srcId = srcId;
-        this.hitList = hitList;
+        this.hits = hits;
+        this.hitIndex = hitIndex;
+    }
+
+    private RequestToDataBridge(ISourceID srcId, ReadableByteChannel reqIn,
+                                WritableByteChannel dataOut,
+                                HitGenerator.HubWindow window)
+    {
+        super(srcId.toString(), reqIn, dataOut);
+
+        this.srcId = srcId;
+        this.window = window;
+    }
+
+    /**
+     * Decode a readout request and build the data payloads it asks for.
+     *
+     * @param buf readout request
+     * @param factory payload factory used to decode the request
+     *
+     * @return response
+     */
+    private Response buildResponse(ByteBuffer buf, PayloadFactory factory)
+    {
+        Response rsp = new Response();
+
+        if (RawReadoutRequest.isReadoutRequest(buf)) {
+            // read the fields in place rather than decoding the payload
+            final int uid = RawReadoutRequest.getUID(buf);
+            final short num;
+            if (EventVersion.VERSION < 5) {
+                num = nextNumber();
+            } else {
+                num = 0;
+            }
+
+            rsp.received = true;
+
+            final int numElems = RawReadoutRequest.getNumberOfElements(buf);
+            for (int i = 0; i < numElems; i++) {
+                addElement(uid, num, RawReadoutRequest.getSourceID(buf, i),
+                           RawReadoutRequest.getFirstTime(buf, i),
+                           RawReadoutRequest.getLastTime(buf, i), rsp);
+            }
+
+            encodeResponse(rsp);
+
+            rsp.done = true;
+            return rsp;
+        }
+
+        IPayload payload;
+        try {
+            payload = factory.getPayload(buf, 0);
+            if (payload == null) {
+                LOG.error("Couldn't create payload from " + buf.limit() +
+                          "-byte buffer");
+            }
+        } catch (PayloadException ex) {
+            LOG.error("Couldn't validate byte buffer", ex);
+            payload = null;
+        }
+
+        if (payload == null) {
+            return rsp;
+        }
+
+        try {
+            ((IPayload) payload).loadPayload();
+        } catch (Exception ex) {
+            LOG.error("Couldn't load payload", ex);
+            payload = null;
+        }
+
+        IReadoutRequest rReq = (IReadoutRequest) payload;
+        if (rReq == null || rReq.getReadoutRequestElements() == null) {
+            if (EventVersion.VERSION >= 5 && LOG.isInfoEnabled()) {
+                LOG.info("Ignoring empty rdoutReq " + rReq);
+            }
+            return rsp;
+        }
+
+        final int uid = rReq.getUID();
+        final short num;
+        if (EventVersion.VERSION < 5) {
+            num = nextNumber();
+        } else {
+            num = 0;
+        }
+
+        rsp.received = true;
+
+        for (Object obj : rReq.getReadoutRequestElements()) {
+            IReadoutRequestElement elem = (IReadoutRequestElement) obj;
+
+            addElement(uid, num, elem.getSourceID().getSourceID(),
+                       elem.getFirstTimeUTC().longValue(),
+                       elem.getLastTimeUTC().longValue(), rsp);
+        }
+
+        encodeResponse(rsp);
+
+        rsp.done = true;
+        return rsp;
+    }
+
+    /**
+     * Remove all response latency models.
+     */
+    public static synchronized void clearResponseLatencies()
+    {
+        latencyModels.clear();
+        defaultLatency = null;
     }
 
     public static Map<ISourceID, RequestToDataBridge>
         createLinks(DAQSourceIdOutputProcess reqOut,
                     PayloadValidator validator, DAQStreamReader dataIn,
-                    IByteBufferCache dataCache, List<HitData> hitList)
+                    IByteBufferCache dataCache, HitStore hits)
         throws IOException
     {
         HashMap<ISourceID, RequestToDataBridge> bridgeMap =
             new HashMap<ISourceID, RequestToDataBridge>();
 
-        for (ISourceID srcId : getSourceIds(hitList)) {
-            Pipe outPipe = Pipe.open();
+        // all bridges share a single index of the hits
+        HitIndex hitIndex = new HitIndex(hits);
 
-            Pipe.SinkChannel sinkOut = outPipe.sink();
-            sinkOut.configureBlocking(false);
+        for (ISourceID srcId : getSourceIds(hits)) {
+            Pipe.SourceChannel srcOut = connectRequests(reqOut, srcId);
+            Pipe.SinkChannel sinkIn = connectData(dataIn, dataCache);
 
-            Pipe.SourceChannel srcOut = outPipe.source();
-            srcOut.configureBlocking(true);
+            RequestToDataBridge bridge =
+                new RequestToDataBridge(srcId, srcOut, sinkIn, hits,
+                                        hitIndex);
+            bridge.setValidator(validator);
+            bridge.setBufferCache(requestCache);
+            bridge.start();
 
-            reqOut.addDataChannel(sinkOut, srcId);
+            bridgeMap.put(srcId, bridge);
+        }
 
-            Pipe inPipe = Pipe.open();
+        return bridgeMap;
+    }
 
-            Pipe.SinkChannel sinkIn = inPipe.sink();
-            sinkIn.configureBlocking(true);
+    /**
+     * Create a bridge for each hub which answers requests by replaying
+     * that hub's generated hits, so a long run never has to be held in
+     * memory.
+     *
+     * @param reqOut request output process
+     * @param validator request validator (may be <tt>null</tt>)
+     * @param dataIn data input process
+     * @param dataCache data buffer cache
+     * @param gen hit generator used to feed the triggers
+     * @param hubIds hubs which get a bridge
+     * @param endTime end of the hits sent by the generator
+     *
+     * @return map from hub source ID to bridge
+     */
+    public static Map<ISourceID, RequestToDataBridge>
+        createLinks(DAQSourceIdOutputProcess reqOut,
+                    PayloadValidator validator, DAQStreamReader dataIn,
+                    IByteBufferCache dataCache, HitGenerator gen,
+                    int[] hubIds, long endTime)
+        throws IOException
+    {
+        HashMap<ISourceID, RequestToDataBridge> bridgeMap =
+            new HashMap<ISourceID, RequestToDataBridge>();
 
-            Pipe.SourceChannel srcIn = inPipe.source();
-            srcIn.configureBlocking(false);
+        for (int hubId : hubIds) {
+            HitGenerator.HubWindow window = gen.openWindow(hubId, endTime);
+            ISourceID srcId = new MockSourceID(window.getSourceID());
 
-            dataIn.addDataChannel(srcIn, "r2dbChan", dataCache, 1024);
+            Pipe.SourceChannel srcOut = connectRequests(reqOut, srcId);
+            Pipe.SinkChannel sinkIn = connectData(dataIn, dataCache);
 
             RequestToDataBridge bridge =
-                new RequestToDataBridge(srcId, srcOut, sinkIn, hitList);
+                new RequestToDataBridge(srcId, srcOut, sinkIn, window);
             bridge.setValidator(validator);
+            bridge.setBufferCache(requestCache);
             bridge.start();
 
             bridgeMap.put(srcId, bridge);
@@ -90,19 +301,170 @@ public class RequestToDataBridge
         return bridgeMap;
     }
 
-    private List<HitData> extractHits(int srcId, long firstTime, long lastTime)
+    /**
+     * Add a pipe to the data input process.
+     *
+     * @return channel the bridge writes data to
+     */
+    private static Pipe.SinkChannel connectData(DAQStreamReader dataIn,
+                                                IByteBufferCache dataCache)
+        throws IOException
     {
-        ArrayList<HitData> list = new ArrayList<HitData>();
+        Pipe inPipe = Pipe.open();
 
-        for (HitData hit : hitList) {
-            if (hit.getSourceID() == srcId && hit.getTime() >= firstTime &&
-                hit.getTime() <= lastTime)
-            {
-                list.add(hit);
+        Pipe.SinkChannel sinkIn = inPipe.sink();
+        sinkIn.configureBlocking(true);
+
+        Pipe.SourceChannel srcIn = inPipe.source();
+        srcIn.configureBlocking(false);
+
+        dataIn.addDataChannel(srcIn, "r2dbChan", dataCache, 1024);
+
+        return sinkIn;
+    }
+
+    /**
+     * Add a pipe for one source to the request output process.
+     *
+     * @return channel the bridge reads requests from
+     */
+    private static Pipe.SourceChannel
+        connectRequests(DAQSourceIdOutputProcess reqOut, ISourceID srcId)
+        throws IOException
+    {
+        Pipe outPipe = Pipe.open();
+
+        Pipe.SinkChannel sinkOut = outPipe.sink();
+        sinkOut.configureBlocking(false);
+
+        Pipe.SourceChannel srcOut = outPipe.source();
+        srcOut.configureBlocking(true);
+
+        reqOut.addDataChannel(sinkOut, srcId);
+
+        return srcOut;
+    }
+
+    /**
+     * Print the request statistics for each bridge, followed by the totals
+     * for all bridges.
+     *
+     * @param bridgeMap bridges
+     */
+    public static void dumpStatistics(Map<ISourceID, RequestToDataBridge>
+                                      bridgeMap)
+    {
+        ArrayList<ISourceID> keys = new ArrayList<ISourceID>();
+        for (ISourceID key : bridgeMap.keySet()) {
+            keys.add(key);
+        }
+        Collections.sort(keys, new Comparator<ISourceID>() {
+                public int compare(ISourceID a, ISourceID b)
+                {
+                    return a.getSourceID() - b.getSourceID();
+                }
+            });
+
+        LatencyHistogram allLatency = new LatencyHistogram();
+        LatencyHistogram allHits = new LatencyHistogram();
+        LatencyHistogram allBytes = new LatencyHistogram();
+
+        for (ISourceID key : keys) {
+            RequestToDataBridge bridge = bridgeMap.get(key);
+            System.err.println(key + ": " + bridge.getStatistics());
+
+            allLatency.add(bridge.requestLatency);
+            allHits.add(bridge.hitsPerReadout);
+            allBytes.add(bridge.bytesPerReadout);
+        }
+
+        System.err.println("All " + keys.size() + " sources: latency[" +
+                           allLatency.toNanosString() + "] hits[" + allHits +
+                           "] bytes[" + allBytes + "]");
+    }
+
+    /**
+     * Find the hits for one readout request element.
+     *
+     * @param srcId element source ID
+     * @param firstTime element first time
+     * @param lastTime element last time
+     *
+     * @return store holding the hits (<tt>null</tt> if there are none) and
+     *         the indices of the hits in that store
+     */
+    private Element extractHits(int srcId, long firstTime, long lastTime)
+    {
+        if (window == null) {
+            int[] found = hitIndex.extract(srcId, firstTime, lastTime);
+            if (found.length == 0) {
+                return null;
             }
+
+            return new Element(hits, found);
+        }
+
+        if (srcId != window.getSourceID()) {
+            return null;
+        }
+
+        HitStore found = window.extract(firstTime, lastTime);
+        if (found.size() == 0) {
+            return null;
+        }
+
+        int[] idx = new int[found.size()];
+        for (int i = 0; i < idx.length; i++) {
+            idx[i] = i;
         }
 
-        return list;
+        return new Element(found, idx);
+    }
+
+    @Override
+    void finishThreadCleanup()
+    {
+        if (respWriter != null) {
+            Response end = new Response();
+            end.isEnd = true;
+            queueResponse(end);
+
+            respWriter.waitForFinish();
+        }
+
+        super.finishThreadCleanup();
+    }
+
+    /**
+     * Get the number of bytes in each data payload.
+     *
+     * @return byte count histogram
+     */
+    public LatencyHistogram getBytesPerReadout()
+    {
+        return bytesPerReadout;
+    }
+
+    /**
+     * Get the number of hits in each data payload.
+     *
+     * @return hit count histogram
+     */
+    public LatencyHistogram getHitsPerReadout()
+    {
+        return hitsPerReadout;
+    }
+
+    /**
+     * Get the number of response buffers which have been allocated.
+     *
+     * @return number of allocated buffers
+     */
+    public int getNumberOfBuffersAllocated()
+    {
+        synchronized (spareBuffers) {
+            return numAllocated;
+        }
     }
 
     public int getNumberDone()
@@ -125,12 +487,73 @@ public class RequestToDataBridge
         return numSent;
     }
 
-    private static List<ISourceID> getSourceIds(List<HitData> hitList)
+    /**
+     * Get the time from the arrival of each readout request to the sending
+     * of each data payload built for it.
+     *
+     * @return latency histogram
+     */
+    public LatencyHistogram getRequestLatency()
+    {
+        return requestLatency;
+    }
+
+    /**
+     * Get the longest time between a request arriving and its data being
+     * sent.
+     *
+     * @return maximum latency in nanoseconds
+     */
+    public long getMaxRequestLatency()
+    {
+        return requestLatency.getMax();
+    }
+
+    /**
+     * Summarize the requests handled by this bridge.
+     *
+     * @return summary
+     */
+    public String getStatistics()
+    {
+        return "rcvd " + numRcvd + ", sent " + numSent + ", empty " +
+            numEmpty + ", bufs " + getNumberOfBuffersAllocated() +
+            ", latency[" + requestLatency.toNanosString() +
+            "] hits[" + hitsPerReadout + "] bytes[" + bytesPerReadout + "]";
+    }
+
+    /**
+     * Requests handed to the worker pool are kept until they're decoded.
+     */
+    @Override
+    boolean isRetainingPayloads()
+    {
+        return inFlight != null || super.isRetainingPayloads();
+    }
+
+    /**
+     * Get the time at which the response to a request which has just
+     * arrived should be sent.
+     *
+     * @param arrival time at which the request arrived
+     *
+     * @return deadline (<tt>0</tt> if responses aren't delayed)
+     */
+    private long getResponseDeadline(long arrival)
+    {
+        if (latencyModel == null) {
+            return 0L;
+        }
+
+        return arrival + latencyModel.nextNanos(latencyRng);
+    }
+
+    private static List<ISourceID> getSourceIds(HitStore hits)
     {
         HashMap<ISourceID, ISourceID> map = new HashMap<ISourceID, ISourceID>();
 
-        for (HitData hd : hitList) {
-            MockSourceID newSrc = new MockSourceID(hd.getSourceID());
+        for (int i = 0; i < hits.size(); i++) {
+            MockSourceID newSrc = new MockSourceID(hits.getSourceID(i));
 
             if (!map.containsKey(newSrc)) {
                 map.put(newSrc, newSrc);
@@ -140,184 +563,342 @@ public class RequestToDataBridge
         return new ArrayList(map.keySet());
     }
 
-    private void sendHitRecordList(IReadoutRequest rReq)
-        throws IOException
+    /**
+     * Find the hits for one readout request element and add the element
+     * to the list of data payloads to be built.
+     *
+     * @param uid request UID
+     * @param num readout data payload number (only used before v5)
+     * @param srcId element source ID
+     * @param firstTime element first time
+     * @param lastTime element last time
+     * @param rsp response being built
+     */
+    private void addElement(int uid, short num, int srcId, long firstTime,
+                            long lastTime, Response rsp)
     {
-        if (rReq == null || rReq.getReadoutRequestElements() == null) {
-            if (LOG.isInfoEnabled()) {
-                LOG.info("Ignoring empty rdoutReq " + rReq);
-            }
+        Element elem = extractHits(srcId, firstTime, lastTime);
+        if (elem == null) {
+            rsp.numEmpty++;
             return;
         }
 
-        numRcvd++;
-
-        final int baseLen = 28;
+        final int numHits = elem.hits.length;
 
-        final int uid = rReq.getUID();
-
-        final int trigType = 0;
-        final int cfgId = 0;
-        final int trigMode = 0;
-
-        ByteBuffer buf = null;
-        for (Object obj : rReq.getReadoutRequestElements()) {
-            IReadoutRequestElement elem = (IReadoutRequestElement) obj;
+        // every hit in a data payload has the same length
+        final int len;
+        if (EventVersion.VERSION < 5) {
+            len = READOUT_DATA_LENGTH + numHits * HitStore.DELTA_LENGTH;
+        } else {
+            len = HIT_RECORD_LIST_LENGTH +
+                numHits * HitStore.DELTA_RECORD_LENGTH;
+        }
 
-            final int srcId = elem.getSourceID().getSourceID();
-            final long firstTime = elem.getFirstTimeUTC().longValue();
-            final long lastTime = elem.getLastTimeUTC().longValue();
+        elem.setRequest(uid, num, srcId, firstTime, lastTime, len);
 
-            List<HitData> dataHits = extractHits(srcId, firstTime, lastTime);
-            if (dataHits.size() == 0) {
-                numEmpty++;
-                continue;
-            }
+        rsp.elements.add(elem);
+        rsp.dataLength += len;
+    }
 
-            int hitLen = 0;
-            for (HitData hit : dataHits) {
-                hitLen += hit.getDeltaRecordLength();
+    /**
+     * Get a buffer large enough to hold an entire response.
+     *
+     * @param len number of bytes needed
+     *
+     * @return buffer whose limit is <tt>len</tt>
+     */
+    private ByteBuffer acquireBuffer(int len)
+    {
+        ByteBuffer buf = spareBuffers.poll();
+        if (buf == null || buf.capacity() < len) {
+            int cap = MIN_BUFFER_LENGTH;
+            while (cap < len) {
+                cap <<= 1;
             }
 
-            final int bufLen = baseLen + hitLen;
-
-            if (buf == null || buf.capacity() < bufLen) {
-                buf = ByteBuffer.allocate(bufLen);
+            buf = ByteBuffer.allocateDirect(cap);
+            synchronized (spareBuffers) {
+                numAllocated++;
             }
+        }
 
-            final int startPos = buf.position();
+        buf.clear();
+        buf.limit(len);
+        return buf;
+    }
 
-            // envelope
-            buf.putInt(bufLen);
-            buf.putInt(PayloadRegistry.PAYLOAD_ID_HIT_RECORD_LIST);
-            buf.putLong(firstTime);
+    /**
+     * Encode all the data payloads for a response, back to back, in a
+     * single buffer.
+     *
+     * @param rsp response
+     */
+    private void encodeResponse(Response rsp)
+    {
+        if (rsp.elements.size() == 0) {
+            return;
+        }
 
-            // readout data record
-            buf.putInt(uid);
-            buf.putInt(srcId);
-            buf.putInt(dataHits.size());
+        ByteBuffer buf = acquireBuffer(rsp.dataLength);
 
-            HitData.setDefaultTriggerType(trigType);
-            HitData.setDefaultConfigId(cfgId);
-            HitData.setDefaultTriggerMode(trigMode);
+        for (Element elem : rsp.elements) {
+            final int startPos = buf.position();
 
-            for (HitData hit : dataHits) {
-                hit.putDeltaRecord(buf, firstTime);
+            if (EventVersion.VERSION < 5) {
+                encodeReadoutData(elem, buf);
+            } else {
+                encodeHitRecordList(elem, buf);
             }
 
-            if (buf.position() != startPos + bufLen) {
-                throw new Error("Expected to put " + bufLen + " bytes, not " +
-                                (buf.position() - startPos));
+            if (buf.position() != startPos + elem.length) {
+                throw new Error("Expected to put " + elem.length +
+                                " bytes, not " + (buf.position() - startPos));
             }
 
-            buf.position(0);
-            buf.limit(bufLen);
-
-            super.write(buf);
-            numSent++;
+            hitsPerReadout.record(elem.hits.length);
+            bytesPerReadout.record(elem.length);
         }
 
-        numDone++;
+        buf.flip();
+
+        rsp.data = buf;
+        rsp.numPayloads = rsp.elements.size();
+        rsp.elements = null;
     }
 
-    private void sendReadoutData(IReadoutRequest rReq)
-        throws IOException
+    /**
+     * Encode a hit record list for one readout request element.
+     *
+     * @param elem request element
+     * @param buf response buffer
+     */
+    private void encodeHitRecordList(Element elem, ByteBuffer buf)
     {
-        final int baseLen = 54;
+        // envelope
+        buf.putInt(elem.length);
+        buf.putInt(PayloadRegistry.PAYLOAD_ID_HIT_RECORD_LIST);
+        buf.putLong(elem.firstTime);
+
+        // readout data record
+        buf.putInt(elem.uid);
+        buf.putInt(elem.srcId);
+        buf.putInt(elem.hits.length);
+
+        for (int i = 0; i < elem.hits.length; i++) {
+            elem.store.putDeltaRecord(elem.hits[i], buf, elem.firstTime);
+        }
+    }
 
-        final int uid = rReq.getUID();
-        final short num = nextNum++;
+    /**
+     * Encode an old-style readout data payload for one readout request
+     * element.
+     *
+     * @param elem request element
+     * @param buf response buffer
+     */
+    private void encodeReadoutData(Element elem, ByteBuffer buf)
+    {
         final short isLast = 1;
 
-        final int trigType = 0;
-        final int cfgId = 0;
-        final int trigMode = 0;
-
-        if (rReq == null || rReq.getReadoutRequestElements() == null) {
-            return;
+        // envelope
+        buf.putInt(elem.length);
+        buf.putInt(PayloadRegistry.PAYLOAD_ID_READOUT_DATA);
+        buf.putLong(elem.firstTime);
+
+        // readout data record
+        buf.putShort((short) 1);
+        buf.putInt(elem.uid);
+        buf.putShort(elem.num);
+        buf.putShort(isLast);
+        buf.putInt(elem.srcId);
+        buf.putLong(elem.firstTime);
+        buf.putLong(elem.lastTime);
+
+        final int compHdrLen = 8;
+
+        // composite header
+        buf.putInt(elem.length - (READOUT_DATA_LENGTH - compHdrLen));
+        buf.putShort((short) 1);
+        buf.putShort((short) elem.hits.length);
+
+        for (int i = 0; i < elem.hits.length; i++) {
+            elem.store.putDelta(elem.hits[i], buf);
         }
+    }
+    /**
+     * Get the next readout data payload number.
+     *
+     * @return payload number
+     */
+    private static synchronized short nextNumber()
+    {
+        return nextNum++;
+    }
 
-        numRcvd++;
+    /**
+     * Queue a response, waiting while too many are in flight.
+     *
+     * @param future pending response
+     */
+    private void queueResponse(Future<Response> future)
+    {
+        try {
+            while (!inFlight.offer(future, 100, TimeUnit.MILLISECONDS)) {
+                if (respWriter.isFailed()) {
+                    throw new Error("Response writer for " + srcId +
+                                    " has died");
+                }
+            }
+        } catch (InterruptedException ie) {
+            throw new Error("Interrupted while queuing " + srcId +
+                            " response", ie);
+        }
+    }
 
-        ByteBuffer buf = null;
-        for (Object obj : rReq.getReadoutRequestElements()) {
-            IReadoutRequestElement elem = (IReadoutRequestElement) obj;
+    /**
+     * Queue a response which is already complete.
+     *
+     * @param rsp response
+     */
+    private void queueResponse(Response rsp)
+    {
+        FutureTask<Response> task =
+            new FutureTask<Response>(new Runnable() {
+                    public void run() {
+                    }
+                }, rsp);
+        task.run();
+
+        queueResponse(task);
+    }
 
-            final int srcId = elem.getSourceID().getSourceID();
-            final long firstTime = elem.getFirstTimeUTC().longValue();
-            final long lastTime = elem.getLastTimeUTC().longValue();
+    public void sendStop()
+        throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        buf.putInt(4);
+        buf.flip();
 
-            List<HitData> dataHits = extractHits(srcId, firstTime, lastTime);
-            if (dataHits.size() == 0) {
-                numEmpty++;
-                continue;
-            }
+        super.write(buf);
+    }
 
-            int hitLen = 0;
-            for (HitData hit : dataHits) {
-                hitLen += hit.getDeltaLength();
-            }
+    /**
+     * Decode requests, extract hits and encode responses on a pool of
+     * <tt>num</tt> worker threads shared by all bridges.  Each bridge still
+     * writes its responses in the order the requests arrived.
+     * This only affects bridges started after this call.
+     *
+     * @param num number of worker threads (<tt>0</tt> to handle requests
+     *            on each bridge's own thread)
+     */
+    public static synchronized void setNumberOfWorkers(int num)
+    {
+        if (num < 0) {
+            throw new Error("Bad number of workers " + num);
+        }
 
-            final int bufLen = baseLen + hitLen;
+        if (workers != null && num != numWorkers) {
+            workers.shutdown();
+            workers = null;
+        }
 
-            if (buf == null || buf.capacity() < bufLen) {
-                buf = ByteBuffer.allocate(bufLen);
-            }
+        numWorkers = num;
+    }
 
-            final int startPos = buf.position();
+    /**
+     * Have bridges read requests into buffers leased from <tt>cache</tt>.
+     * When workers are used, each request is copied into its own leased
+     * buffer which the worker returns once the response is built.
+     * This only affects bridges created after this call.
+     *
+     * @param cache thread-safe buffer cache (<tt>null</tt> to allocate)
+     */
+    public static synchronized void setRequestBufferCache(IByteBufferCache
+                                                          cache)
+    {
+        requestCache = cache;
+    }
 
-            // envelope
-            buf.putInt(bufLen);
-            buf.putInt(PayloadRegistry.PAYLOAD_ID_READOUT_DATA);
-            buf.putLong(firstTime);
-
-            // readout data record
-            buf.putShort((short) 1);
-            buf.putInt(uid);
-            buf.putShort(num);
-            buf.putShort(isLast);
-            buf.putInt(srcId);
-            buf.putLong(firstTime);
-            buf.putLong(lastTime);
-
-            final int compHdrLen = 8;
-
-            // composite header
-            buf.putInt(bufLen - (baseLen - compHdrLen));
-            buf.putShort((short) 1);
-            buf.putShort((short) dataHits.size());
-
-            HitData.setDefaultTriggerType(trigType);
-            HitData.setDefaultConfigId(cfgId);
-            HitData.setDefaultTriggerMode(trigMode);
-
-            for (HitData hit : dataHits) {
-                hit.putDelta(buf);
-            }
+    /**
+     * Get the shared worker pool, creating it if necessary.
+     *
+     * @return worker pool (<tt>null</tt> if requests are handled serially)
+     */
+    private static synchronized ExecutorService getWorkers()
+    {
+        if (numWorkers > 0 && workers == null) {
+            workers = Executors.newFixedThreadPool(numWorkers,
+                new HarnessThreads.PoolThreadFactory("RequestWorker"));
+        }
 
-            if (buf.position() != startPos + bufLen) {
-                throw new Error("Expected to put " + bufLen + " bytes, not " +
-                                (buf.position() - startPos));
-            }
+        return workers;
+    }
 
-            buf.position(0);
-            buf.limit(bufLen);
+    /**
+     * Delay every hub's responses by values drawn from <tt>model</tt>,
+     * unless the hub has its own model.
+     *
+     * @param model latency model (<tt>null</tt> to respond immediately)
+     */
+    public static synchronized void setDefaultResponseLatency(LatencyModel
+                                                              model)
+    {
+        defaultLatency = model;
+    }
 
-            super.write(buf);
-            numSent++;
+    /**
+     * Delay one hub's responses by values drawn from <tt>model</tt>.
+     * The delay is measured from the time the request arrives, and
+     * responses from a hub are still sent in order.
+     * This only affects bridges started after this call.
+     *
+     * @param srcId hub source ID
+     * @param model latency model (<tt>null</tt> to use the default model)
+     */
+    public static synchronized void setResponseLatency(int srcId,
+                                                       LatencyModel model)
+    {
+        if (model == null) {
+            latencyModels.remove(srcId);
+        } else {
+            latencyModels.put(srcId, model);
         }
+    }
 
-        numDone++;
+    /**
+     * Set the seed used to draw response latencies.  Each hub mixes in its
+     * own source ID.
+     *
+     * @param seed random seed
+     */
+    public static synchronized void setResponseLatencySeed(long seed)
+    {
+        latencySeed = seed;
     }
 
-    public void sendStop()
-        throws IOException
+    @Override
+    public void start()
     {
-        ByteBuffer buf = ByteBuffer.allocate(4);
-        buf.putInt(4);
-        buf.flip();
+        synchronized (RequestToDataBridge.class) {
+            latencyModel = latencyModels.get(srcId.getSourceID());
+            if (latencyModel == null) {
+                latencyModel = defaultLatency;
+            }
 
-        super.write(buf);
+            latencyRng = new Random(latencySeed ^ srcId.getSourceID());
+        }
+
+        pool = getWorkers();
+        if (pool == null) {
+            inFlight = null;
+            respWriter = null;
+        } else {
+            inFlight = new ArrayBlockingQueue<Future<Response>>(MAX_IN_FLIGHT);
+            respWriter = new ResponseWriter();
+            HarnessThreads.start(srcId + "*RESP", respWriter);
+        }
+
+        super.start();
     }
 
     @Override
@@ -326,37 +907,210 @@ public class RequestToDataBridge
     {
         // assume stop messages are valid
         if (buf.limit() >= 4 && buf.getInt(0) == 4) {
-            sendStop();
-        } else {
+            if (inFlight == null) {
+                sendStop();
+            } else {
+                Response rsp = new Response();
+                rsp.isStop = true;
+                queueResponse(rsp);
+            }
+        } else if (inFlight == null) {
             if (factory == null) {
                 factory = new PayloadFactory(null);
             }
 
-            IPayload payload;
-            try {
-                payload = factory.getPayload(buf, 0);
-                if (payload == null) {
-                    LOG.error("Couldn't create payload from " + buf.limit() +
-                              "-byte buffer");
+            final long arrival = System.nanoTime();
+            final long deadline = getResponseDeadline(arrival);
+
+            Response rsp = buildResponse(buf, factory);
+            rsp.arrival = arrival;
+            rsp.deadline = deadline;
+
+            writeResponse(rsp);
+        } else {
+            final ByteBuffer reqBuf = buf;
+            final long arrival = System.nanoTime();
+            final long deadline = getResponseDeadline(arrival);
+
+            Callable<Response> task = new Callable<Response>() {
+                public Response call()
+                {
+                    try {
+                        Response rsp =
+                            buildResponse(reqBuf, localFactory.get());
+                        rsp.arrival = arrival;
+                        rsp.deadline = deadline;
+                        return rsp;
+                    } finally {
+                        releasePayload(reqBuf);
+                    }
                 }
-            } catch (PayloadException ex) {
-                LOG.error("Couldn't validate byte buffer", ex);
-                payload = null;
+            };
+
+            queueResponse(pool.submit(task));
+        }
+    }
+
+    /**
+     * Write a response and update the counters.
+     *
+     * @param rsp response
+     */
+    private void writeResponse(Response rsp)
+        throws IOException
+    {
+        if (rsp.isStop) {
+            sendStop();
+            return;
+        }
+
+        if (rsp.deadline != 0L) {
+            long remaining = rsp.deadline - System.nanoTime();
+            while (remaining > 0) {
+                LockSupport.parkNanos(remaining);
+                remaining = rsp.deadline - System.nanoTime();
             }
+        }
 
-            if (payload != null) {
-                try {
-                    ((IPayload) payload).loadPayload();
-                } catch (Exception ex) {
-                    LOG.error("Couldn't load payload", ex);
-                    payload = null;
-                }
+        if (rsp.received) {
+            numRcvd++;
+        }
+        numEmpty += rsp.numEmpty;
+
+        if (rsp.data != null) {
+            // every data payload goes out in a single write
+            super.write(rsp.data);
+            numSent += rsp.numPayloads;
+
+            final long latency = System.nanoTime() - rsp.arrival;
+            for (int i = 0; i < rsp.numPayloads; i++) {
+                requestLatency.record(latency);
+            }
+
+            // batched buffers are still waiting to be written
+            if (!isBatching()) {
+                spareBuffers.offer(rsp.data);
+            }
+            rsp.data = null;
+        }
+
+        if (rsp.done) {
+            numDone++;
+        }
+    }
+
+    /**
+     * Data payloads built in response to a single readout request.
+     */
+    static class Response
+    {
+        ArrayList<Element> elements = new ArrayList<Element>();
+        int dataLength;
+        ByteBuffer data;
+        int numPayloads;
+        boolean received;
+        boolean done;
+        boolean isStop;
+        boolean isEnd;
+        int numEmpty;
+        long arrival;
+        long deadline;
+    }
 
-                if (EventVersion.VERSION < 5) {
-                    sendReadoutData((IReadoutRequest) payload);
-                } else {
-                    sendHitRecordList((IReadoutRequest) payload);
+    /**
+     * A readout request element and the hits it selected.
+     */
+    static class Element
+    {
+        int uid;
+        short num;
+        int srcId;
+        long firstTime;
+        long lastTime;
+        /** Store holding the selected hits */
+        HitStore store;
+        /** Indices of the selected hits in the hit store */
+        int[] hits;
+        int length;
+
+        Element(HitStore store, int[] hits)
+        {
+            this.store = store;
+            this.hits = hits;
+        }
+
+        void setRequest(int uid, short num, int srcId, long firstTime,
+                        long lastTime, int length)
+        {
+            this.uid = uid;
+            this.num = num;
+            this.srcId = srcId;
+            this.firstTime = firstTime;
+            this.lastTime = lastTime;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Write responses in the order their requests arrived.
+     */
+    class ResponseWriter
+        implements Runnable
+    {
+        private CountDownLatch finished = new CountDownLatch(1);
+        private volatile boolean failed;
+
+        boolean isFailed()
+        {
+            return failed;
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                while (true) {
+                    Response rsp;
+                    try {
+                        rsp = inFlight.take().get();
+                    } catch (InterruptedException ie) {
+                        throw new Error("Interrupted while writing " +
+                                        srcId + " responses", ie);
+                    } catch (ExecutionException ee) {
+                        throw new Error("Couldn't build " + srcId +
+                                        " response", ee.getCause());
+                    }
+
+                    if (rsp.isEnd) {
+                        break;
+                    }
+
+                    try {
+                        writeResponse(rsp);
+                    } catch (IOException ioe) {
+                        throw new Error("Couldn't write " + srcId +
+                                        " response", ioe);
+                    }
                 }
+            } catch (Error err) {
+                failed = true;
+                throw err;
+            } finally {
+                finished.countDown();
+            }
+        }
+
+        void waitForFinish()
+        {
+            try {
+                finished.await();
+            } catch (InterruptedException ie) {
+                throw new Error("Interrupted while waiting for " + srcId +
+                                " response writer", ie);
+            }
+
+            if (failed) {
+                throw new Error("Response writer for " + srcId + " failed");
             }
         }
     }
@@ -0,0 +1,480 @@
+package icecube.daq.test;
+
+import icecube.daq.payload.IPayload;
+import icecube.daq.payload.PayloadRegistry;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Pass a sample of payloads to another validator.  Every payload gets
+ * <tt>BaseValidator</tt>'s structural check.  For each payload type, the
+ * first few payloads and any payload with an unusual header are always
+ * validated; a configurable fraction of the rest are validated.
+ * Payloads are picked by accumulating the fraction, not at random, so a
+ * run validates the same payloads every time.
+ * <p>
+ * If a target rate is set, each type's fraction is lowered once a second
+ * so that type is validated at no more than the target rate, and raised
+ * again (up to the configured fraction) when traffic slows.
+ */
+public class SamplingValidator
+    implements PayloadValidator
+{
+    private static final Logger LOG =
+        Logger.getLogger(SamplingValidator.class);
+
+    /** System property holding the fraction of payloads to validate */
+    public static final String PROPERTY =
+        "icecube.daq.test.validation.sample";
+
+    /** Number of payloads of each type which are always validated */
+    public static final int DEFAULT_ALWAYS_VALIDATE = 100;
+    /** Adaptive sampling never validates less than this fraction */
+    public static final double MIN_FRACTION = 0.001;
+
+    /** How often adaptive fractions are recalculated */
+    private static final long WINDOW_NANOS = 1000000000L;
+    /** Payloads this many times longer than their type's average are odd */
+    private static final int LENGTH_OUTLIER_FACTOR = 4;
+
+    private PayloadValidator validator;
+    private double defaultFraction;
+    private HashMap<Integer, Double> fractions = new HashMap<Integer, Double>();
+    private int alwaysValidate = DEFAULT_ALWAYS_VALIDATE;
+    private double targetRate;
+
+    private TreeMap<Integer, TypeStats> stats =
+        new TreeMap<Integer, TypeStats>();
+    /** Latest time seen on each time-ordered stream */
+    private HashMap<Long, long[]> prevTimes = new HashMap<Long, long[]>();
+    private boolean foundInvalid;
+
+    /**
+     * Sample payloads for a validator.
+     *
+     * @param validator validator which checks the sampled payloads
+     * @param fraction fraction of payloads to validate (0.0 - 1.0)
+     */
+    public SamplingValidator(PayloadValidator validator, double fraction)
+    {
+        if (validator == null) {
+            throw new Error("Validator cannot be null");
+        }
+
+        this.validator = validator;
+        defaultFraction = checkFraction(fraction);
+    }
+
+    private static double checkFraction(double fraction)
+    {
+        if (fraction < 0.0 || fraction > 1.0) {
+            throw new Error("Bad sampling fraction " + fraction);
+        }
+
+        return fraction;
+    }
+
+    /**
+     * Get the fraction set by the
+     * <tt>icecube.daq.test.validation.sample</tt> system property.
+     *
+     * @return fraction of payloads to validate, or <tt>-1.0</tt> if the
+     *         property is not set
+     */
+    static double getPropertyFraction()
+    {
+        final String val = System.getProperty(PROPERTY);
+        if (val == null || val.length() == 0) {
+            return -1.0;
+        }
+
+        try {
+            return checkFraction(Double.parseDouble(val));
+        } catch (NumberFormatException nfe) {
+            throw new Error("Bad " + PROPERTY + " value \"" + val + "\"");
+        }
+    }
+
+    /**
+     * Get the sampling state for a payload type, creating it if necessary.
+     *
+     * @param type payload type
+     *
+     * @return sampling state
+     */
+    private TypeStats getTypeStats(int type)
+    {
+        TypeStats ts = stats.get(type);
+        if (ts == null) {
+            Double fraction = fractions.get(type);
+            ts = new TypeStats(fraction == null ? defaultFraction :
+                               fraction.doubleValue());
+            stats.put(type, ts);
+        }
+
+        return ts;
+    }
+
+    /**
+     * Has this payload's time gone backwards on its stream?
+     *
+     * @param streamKey stream returned by
+     *                  <tt>BaseValidator.getStreamKey()</tt>
+     * @param time payload time
+     *
+     * @return <tt>true</tt> if the payload is earlier than its predecessor
+     */
+    private boolean isOutOfOrder(long streamKey, long time)
+    {
+        if (streamKey < 0) {
+            return false;
+        }
+
+        long[] prevTime = prevTimes.get(streamKey);
+        if (prevTime == null) {
+            prevTimes.put(streamKey, new long[] { time });
+            return false;
+        }
+
+        final boolean backwards = time < prevTime[0];
+        prevTime[0] = time;
+        return backwards;
+    }
+
+    /**
+     * Get a short name for a payload type.
+     *
+     * @param type payload type
+     *
+     * @return type name
+     */
+    static String getTypeName(int type)
+    {
+        switch (type) {
+        case PayloadRegistry.PAYLOAD_ID_SIMPLE_HIT:
+            return "SimpleHit";
+        case PayloadRegistry.PAYLOAD_ID_DELTA_HIT:
+            return "DeltaHit";
+        case PayloadRegistry.PAYLOAD_ID_COMPRESSED_HIT_DATA:
+            return "HitData";
+        case PayloadRegistry.PAYLOAD_ID_HIT_RECORD_LIST:
+            return "HitRecordList";
+        case PayloadRegistry.PAYLOAD_ID_TRIGGER_REQUEST:
+            return "TriggerRequest";
+        case PayloadRegistry.PAYLOAD_ID_READOUT_DATA:
+            return "ReadoutData";
+        case PayloadRegistry.PAYLOAD_ID_EVENT_V5:
+            return "EventV5";
+        case PayloadRegistry.PAYLOAD_ID_EVENT_V6:
+            return "EventV6";
+        default:
+            return "Type#" + type;
+        }
+    }
+
+    /**
+     * Decide whether a structurally valid payload should be validated.
+     *
+     * @param type payload type
+     * @param len payload length
+     * @param time payload time
+     * @param streamKey stream returned by
+     *                  <tt>BaseValidator.getStreamKey()</tt>
+     *
+     * @return <tt>true</tt> if the payload should be validated
+     */
+    synchronized boolean pick(int type, int len, long time, long streamKey)
+    {
+        TypeStats ts = getTypeStats(type);
+
+        final boolean unusual = !BaseValidator.isKnownType(type) ||
+            isOutOfOrder(streamKey, time) ||
+            (ts.seen >= alwaysValidate &&
+             (long) len * ts.seen > LENGTH_OUTLIER_FACTOR * ts.totalBytes);
+
+        ts.seen++;
+        ts.totalBytes += len;
+
+        if (targetRate > 0.0) {
+            ts.adapt(targetRate);
+        }
+
+        boolean chosen;
+        if (unusual) {
+            ts.numUnusual++;
+            chosen = true;
+        } else if (ts.seen <= alwaysValidate) {
+            chosen = true;
+        } else {
+            ts.credit += ts.fraction;
+            chosen = ts.credit >= 1.0;
+            if (chosen) {
+                ts.credit -= 1.0;
+            }
+        }
+
+        if (chosen) {
+            ts.validated++;
+        }
+
+        return chosen;
+    }
+
+    /**
+     * Record a payload which failed validation.
+     *
+     * @param type payload type
+     */
+    private synchronized void recordFailure(int type)
+    {
+        getTypeStats(type).numInvalid++;
+        foundInvalid = true;
+    }
+
+    @Override
+    public boolean foundInvalid()
+    {
+        synchronized (this) {
+            if (foundInvalid) {
+                return true;
+            }
+        }
+
+        return validator.foundInvalid();
+    }
+
+    /**
+     * Get the number of payloads of one type which have been seen.
+     *
+     * @param type payload type
+     *
+     * @return number of payloads seen
+     */
+    public synchronized long getNumberSeen(int type)
+    {
+        TypeStats ts = stats.get(type);
+        return ts == null ? 0L : ts.seen;
+    }
+
+    /**
+     * Get the number of payloads of one type which were validated.
+     *
+     * @param type payload type
+     *
+     * @return number of payloads validated
+     */
+    public synchronized long getNumberValidated(int type)
+    {
+        TypeStats ts = stats.get(type);
+        return ts == null ? 0L : ts.validated;
+    }
+
+    /**
+     * Summarize sampling coverage for each payload type.  When nothing
+     * failed, the report includes the fraction of bad payloads which
+     * could still have gone unnoticed (the 95% "rule of three" bound).
+     *
+     * @return one line for each payload type
+     */
+    public synchronized String getStatistics()
+    {
+        StringBuilder buf = new StringBuilder();
+        for (Map.Entry<Integer, TypeStats> entry : stats.entrySet()) {
+            final TypeStats ts = entry.getValue();
+
+            if (buf.length() > 0) {
+                buf.append('\n');
+            }
+
+            buf.append(getTypeName(entry.getKey())).append(": ").
+                append(ts.validated).append('/').append(ts.seen).
+                append(" validated (").
+                append(String.format("%.1f", ts.validated * 100.0 /
+                                     Math.max(1, ts.seen))).
+                append("%), ").append(ts.numUnusual).append(" unusual, ").
+                append(ts.numInvalid).append(" invalid, fraction ").
+                append(String.format("%.3f", ts.fraction));
+
+            if (ts.numInvalid == 0 && ts.validated > 0) {
+                buf.append(", <").
+                    append(String.format("%.2g", 300.0 / ts.validated)).
+                    append("% bad at 95%");
+            }
+        }
+
+        return buf.toString();
+    }
+
+    /**
+     * Set the number of payloads of each type which are validated before
+     * sampling starts.
+     *
+     * @param num number of payloads
+     */
+    public synchronized void setAlwaysValidate(int num)
+    {
+        if (num < 0) {
+            throw new Error("Bad number of payloads " + num);
+        }
+
+        alwaysValidate = num;
+    }
+
+    /**
+     * Set the fraction of one type of payload to validate.
+     *
+     * @param type payload type
+     * @param fraction fraction of payloads to validate (0.0 - 1.0)
+     */
+    public synchronized void setFraction(int type, double fraction)
+    {
+        fractions.put(type, checkFraction(fraction));
+
+        TypeStats ts = stats.get(type);
+        if (ts != null) {
+            ts.maxFraction = fraction;
+            ts.fraction = fraction;
+        }
+    }
+
+    /**
+     * Adapt each type's sampling fraction so no more than
+     * <tt>perSecond</tt> payloads of that type are validated each second.
+     *
+     * @param perSecond target rate (0 to always use the fixed fractions)
+     */
+    public synchronized void setTargetRate(double perSecond)
+    {
+        if (perSecond < 0.0) {
+            throw new Error("Bad target rate " + perSecond);
+        }
+
+        targetRate = perSecond;
+    }
+
+    /**
+     * Check the payload's structure and, if it is picked, validate it.
+     *
+     * @param payBuf payload bytes
+     *
+     * @return <tt>false</tt> if the payload was found to be invalid
+     */
+    @Override
+    public boolean validate(ByteBuffer payBuf)
+    {
+        // assume stop messages are valid
+        if (payBuf.limit() >= 4 && payBuf.getInt(0) == 4) {
+            return true;
+        }
+
+        final int type = payBuf.limit() >= 8 ? payBuf.getInt(4) : -1;
+
+        String err = BaseValidator.checkPayload(payBuf);
+        if (err != null) {
+            LOG.error(err + " in " + payBuf);
+            recordFailure(type);
+            return false;
+        }
+
+        if (!pick(type, payBuf.limit(), payBuf.getLong(8),
+                  BaseValidator.getStreamKey(payBuf, type)))
+        {
+            return true;
+        }
+
+        if (!validator.validate(payBuf)) {
+            recordFailure(type);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Validate a decoded payload.  There are no bytes to check without
+     * decoding, so every decoded payload is validated, but it is still
+     * counted in the statistics.
+     *
+     * @param payload payload
+     *
+     * @return <tt>false</tt> if the payload was found to be invalid
+     */
+    @Override
+    public boolean validate(IPayload payload)
+    {
+        final int type = payload.getPayloadType();
+
+        synchronized (this) {
+            TypeStats ts = getTypeStats(type);
+            ts.seen++;
+            ts.totalBytes += payload.length();
+            ts.validated++;
+        }
+
+        if (!validator.validate(payload)) {
+            recordFailure(type);
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Sampling[" + validator + "]";
+    }
+
+    /**
+     * Sampling state and coverage for one payload type.
+     */
+    static class TypeStats
+    {
+        double maxFraction;
+        double fraction;
+        double credit;
+
+        long seen;
+        long validated;
+        long numUnusual;
+        long numInvalid;
+        long totalBytes;
+
+        long windowStart = System.nanoTime();
+        long windowCount;
+
+        TypeStats(double fraction)
+        {
+            maxFraction = fraction;
+            this.fraction = fraction;
+        }
+
+        /**
+         * Recalculate the fraction at the end of each window.
+         *
+         * @param targetRate maximum validations per second
+         */
+        void adapt(double targetRate)
+        {
+            windowCount++;
+
+            final long now = System.nanoTime();
+            final long elapsed = now - windowStart;
+            if (elapsed < WINDOW_NANOS) {
+                return;
+            }
+
+            final double rate = windowCount * 1.0E9 / elapsed;
+            fraction = Math.min(maxFraction,
+                                Math.max(MIN_FRACTION, targetRate / rate));
+
+            windowStart = now;
+            windowCount = 0;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package icecube.daq.test;
+
+import icecube.daq.payload.IPayload;
+import icecube.daq.payload.PayloadRegistry;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ * Check which payloads <tt>SamplingValidator</tt> picks for validation.
+ */
+public class SamplingValidatorTest
+    extends TestCase
+{
+    /** Delta hits have no time-ordered stream */
+    private static final int TYPE = PayloadRegistry.PAYLOAD_ID_DELTA_HIT;
+    private static final int LENGTH = 32;
+
+    public SamplingValidatorTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Build a payload with a valid envelope, using the payload's index as
+     * its time.
+     */
+    private static ByteBuffer buildPayload(int len, long index)
+    {
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        buf.putInt(0, len);
+        buf.putInt(4, TYPE);
+        buf.putLong(8, index);
+        return buf;
+    }
+
+    /**
+     * Remember the time of each payload it is asked to validate.
+     */
+    static class RecordingValidator
+        implements PayloadValidator
+    {
+        ArrayList<Long> times = new ArrayList<Long>();
+
+        @Override
+        public boolean foundInvalid()
+        {
+            return false;
+        }
+
+        @Override
+        public boolean validate(ByteBuffer payBuf)
+        {
+            times.add(payBuf.getLong(8));
+            return true;
+        }
+
+        @Override
+        public boolean validate(IPayload payload)
+        {
+            return true;
+        }
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(SamplingValidatorTest.class);
+    }
+
+    public void testAlwaysValidateFirst()
+    {
+        SamplingValidator sampler =
+            new SamplingValidator(new RecordingValidator(), 0.0);
+        sampler.setAlwaysValidate(10);
+
+        for (int i = 0; i < 30; i++) {
+            assertEquals("Bad choice for payload #" + i, i < 10,
+                         sampler.pick(TYPE, LENGTH, i, -1L));
+        }
+
+        assertEquals("Bad number seen", 30L, sampler.getNumberSeen(TYPE));
+        assertEquals("Bad number validated", 10L,
+                     sampler.getNumberValidated(TYPE));
+    }
+
+    public void testLengthOutlier()
+    {
+        SamplingValidator sampler =
+            new SamplingValidator(new RecordingValidator(), 0.0);
+        sampler.setAlwaysValidate(5);
+
+        for (int i = 0; i < 20; i++) {
+            sampler.pick(TYPE, LENGTH, i, -1L);
+        }
+        assertEquals("Bad number validated", 5L,
+                     sampler.getNumberValidated(TYPE));
+
+        assertTrue("Long payload was not validated",
+                   sampler.pick(TYPE, LENGTH * 6, 20, -1L));
+        assertFalse("Slightly long payload was validated",
+                    sampler.pick(TYPE, LENGTH * 2, 21, -1L));
+
+        assertTrue("Outlier is not reported",
+                   sampler.getStatistics().indexOf(" 1 unusual,") > 0);
+    }
+
+    public void testCredit()
+    {
+        RecordingValidator recorder = new RecordingValidator();
+
+        SamplingValidator sampler = new SamplingValidator(recorder, 0.25);
+        sampler.setAlwaysValidate(0);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue("Payload #" + i + " failed",
+                       sampler.validate(buildPayload(LENGTH, i)));
+        }
+
+        assertEquals("Bad number seen", 100L, sampler.getNumberSeen(TYPE));
+        assertEquals("Bad number validated", 25L,
+                     sampler.getNumberValidated(TYPE));
+        for (int i = 0; i < recorder.times.size(); i++) {
+            assertEquals("Bad validated payload", (long) (i * 4 + 3),
+                         recorder.times.get(i).longValue());
+        }
+
+        assertFalse("Sampler found an invalid payload",
+                    sampler.foundInvalid());
+    }
+
+    public void testAdapt()
+        throws InterruptedException
+    {
+        SamplingValidator sampler =
+            new SamplingValidator(new RecordingValidator(), 1.0);
+        sampler.setAlwaysValidate(0);
+        sampler.setTargetRate(10.0);
+
+        // fill one adaptive window at roughly 1000 payloads per second
+        long index = 0;
+        final long start = System.nanoTime();
+        while (System.nanoTime() - start < 1100000000L) {
+            sampler.pick(TYPE, LENGTH, index++, -1L);
+            Thread.sleep(1);
+        }
+
+        final long before = sampler.getNumberValidated(TYPE);
+        for (int i = 0; i < 1000; i++) {
+            sampler.pick(TYPE, LENGTH, index++, -1L);
+        }
+        final long added = sampler.getNumberValidated(TYPE) - before;
+
+        assertTrue("Validated " + added + " of 1000 payloads after adapting",
+                   added < 100);
+    }
+
+    public void testBadEnvelope()
+    {
+        RecordingValidator recorder = new RecordingValidator();
+
+        SamplingValidator sampler = new SamplingValidator(recorder, 1.0);
+
+        ByteBuffer buf = buildPayload(LENGTH, 0L);
+        buf.putInt(0, LENGTH + 1);
+
+        assertFalse("Bad envelope was accepted", sampler.validate(buf));
+        assertTrue("Bad envelope was not recorded", sampler.foundInvalid());
+        assertEquals("Bad payload was passed on", 0, recorder.times.size());
+    }
+
+    public static void main(String[] args)
+    {
+        TestRunner.run(suite());
+    }
+}
@@ -0,0 +1,115 @@
+package icecube.daq.test;
+
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * Socket options applied to both ends of a loopback TCP link.
+ */
+public class SocketSettings
+{
+    /** System property holding the send buffer size in bytes */
+    public static final String SEND_BUFFER_PROPERTY =
+        "icecube.daq.test.socket.sendBuffer";
+    /** System property holding the receive buffer size in bytes */
+    public static final String RECEIVE_BUFFER_PROPERTY =
+        "icecube.daq.test.socket.receiveBuffer";
+    /** System property which enables TCP_NODELAY if set to "true" */
+    public static final String NO_DELAY_PROPERTY =
+        "icecube.daq.test.socket.noDelay";
+
+    private int sendBufferSize;
+    private int receiveBufferSize;
+    private boolean tcpNoDelay;
+
+    /**
+     * Use the system's default buffer sizes and leave Nagle enabled.
+     */
+    public SocketSettings()
+    {
+        this(0, 0, false);
+    }
+
+    /**
+     * Create socket settings.
+     *
+     * @param sendBufferSize SO_SNDBUF size (system default if <= 0)
+     * @param receiveBufferSize SO_RCVBUF size (system default if <= 0)
+     * @param tcpNoDelay <tt>true</tt> to disable Nagle's algorithm
+     */
+    public SocketSettings(int sendBufferSize, int receiveBufferSize,
+                          boolean tcpNoDelay)
+    {
+        this.sendBufferSize = sendBufferSize;
+        this.receiveBufferSize = receiveBufferSize;
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    /**
+     * Apply these settings to a socket.
+     *
+     * @param sock socket
+     *
+     * @throws IOException if an option cannot be set
+     */
+    void apply(Socket sock)
+        throws IOException
+    {
+        if (sendBufferSize > 0) {
+            sock.setSendBufferSize(sendBufferSize);
+        }
+        if (receiveBufferSize > 0) {
+            sock.setReceiveBufferSize(receiveBufferSize);
+        }
+        sock.setTcpNoDelay(tcpNoDelay);
+    }
+
+    /**
+     * Build settings from the <tt>icecube.daq.test.socket.*</tt>
+     * system properties.
+     *
+     * @return socket settings
+     */
+    public static SocketSettings getDefault()
+    {
+        return new SocketSettings(getIntProperty(SEND_BUFFER_PROPERTY),
+                                  getIntProperty(RECEIVE_BUFFER_PROPERTY),
+                                  Boolean.getBoolean(NO_DELAY_PROPERTY));
+    }
+
+    private static int getIntProperty(String name)
+    {
+        final String val = System.getProperty(name);
+        if (val == null || val.length() == 0) {
+            return 0;
+        }
+
+        try {
+            return Integer.parseInt(val);
+        } catch (NumberFormatException nfe) {
+            throw new Error("Bad value \"" + val + "\" for " + name);
+        }
+    }
+
+    public int getReceiveBufferSize()
+    {
+        return receiveBufferSize;
+    }
+
+    public int getSendBufferSize()
+    {
+        return sendBufferSize;
+    }
+
+    public boolean isTcpNoDelay()
+    {
+        return tcpNoDelay;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SocketSettings[snd " + sendBufferSize + " rcv " +
+            receiveBufferSize + (tcpNoDelay ? " nodelay" : "") + "]";
+    }
+}
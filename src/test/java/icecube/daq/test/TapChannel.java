@@ -0,0 +1,147 @@
+package icecube.daq.test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Pass everything written to this channel through to another channel,
+ * handing each complete payload to a validator along the way.
+ *
+ * Payloads which arrive in a single write are validated in place;
+ * only payloads split across several writes are copied.
+ */
+public class TapChannel
+    implements WritableByteChannel
+{
+    private String name;
+    private WritableByteChannel chanOut;
+    private PayloadValidator validator;
+
+    private ByteBuffer lenBuf = ByteBuffer.allocate(4);
+    private ByteBuffer partial;
+
+    private long numTapped;
+
+    public TapChannel(String name, WritableByteChannel chanOut,
+                      PayloadValidator validator)
+    {
+        if (validator == null) {
+            throw new Error("No validator specified for " + name);
+        }
+
+        this.name = name;
+        this.chanOut = chanOut;
+        this.validator = validator;
+    }
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        chanOut.close();
+    }
+
+    public long getNumberTapped()
+    {
+        return numTapped;
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+        return chanOut.isOpen();
+    }
+
+    /**
+     * Feed the bytes in <tt>data</tt> to the payload reassembler,
+     * validating each payload as it is completed.
+     *
+     * @param data newly written bytes
+     */
+    private void tap(ByteBuffer data)
+    {
+        while (data.hasRemaining()) {
+            if (partial == null) {
+                if (lenBuf.position() == 0 && data.remaining() >= 4) {
+                    final int len = data.getInt(data.position());
+                    if (len < 4) {
+                        throw new Error(name + " got bad length " + len);
+                    }
+
+                    if (data.remaining() >= len) {
+                        // whole payload is here, so validate it in place
+                        ByteBuffer payBuf = data.slice();
+                        payBuf.limit(len);
+                        validate(payBuf);
+                        data.position(data.position() + len);
+                        continue;
+                    }
+                }
+
+                while (lenBuf.hasRemaining() && data.hasRemaining()) {
+                    lenBuf.put(data.get());
+                }
+                if (lenBuf.hasRemaining()) {
+                    break;
+                }
+
+                final int len = lenBuf.getInt(0);
+                if (len < 4) {
+                    throw new Error(name + " got bad length " + len);
+                }
+
+                partial = ByteBuffer.allocate(len);
+                lenBuf.flip();
+                partial.put(lenBuf);
+                lenBuf.clear();
+            }
+
+            final int num = Math.min(data.remaining(), partial.remaining());
+            ByteBuffer chunk = data.slice();
+            chunk.limit(num);
+            partial.put(chunk);
+            data.position(data.position() + num);
+
+            if (!partial.hasRemaining()) {
+                partial.flip();
+                validate(partial);
+                partial = null;
+            }
+        }
+    }
+
+    private void validate(ByteBuffer payBuf)
+    {
+        validator.validate(payBuf);
+        if (payBuf.position() != 0) {
+            throw new Error("Validator " + validator +
+                            " changed buffer position");
+        }
+
+        numTapped++;
+    }
+
+    @Override
+    public int write(ByteBuffer src)
+        throws IOException
+    {
+        final int startPos = src.position();
+
+        final int lenOut = chanOut.write(src);
+        if (lenOut > 0) {
+            ByteBuffer data = src.duplicate();
+            data.limit(startPos + lenOut);
+            data.position(startPos);
+            tap(data);
+        }
+
+        return lenOut;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Tap[" + name + "#" + numTapped + "]";
+    }
+}
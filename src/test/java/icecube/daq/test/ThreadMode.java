@@ -0,0 +1,45 @@
+package icecube.daq.test;
+
+/**
+ * Ways in which <tt>HarnessThreads</tt> can run the harness's bridge and
+ * producer loops.
+ */
+public enum ThreadMode
+{
+    /** One platform thread per loop (the original behavior) */
+    PLATFORM,
+    /**
+     * One virtual thread per loop.  Virtual threads need Java 21 or later.
+     */
+    VIRTUAL,
+    /**
+     * A fixed-size pool of platform threads.  Each loop holds a pool
+     * thread until it finishes, so the pool must be at least as large as
+     * the number of loops which run at the same time.  Starting a loop
+     * while every pool thread is busy fails instead of queuing the loop.
+     */
+    POOLED;
+
+    /** System property used to choose the thread mode for a test run */
+    public static final String PROPERTY = "icecube.daq.test.threads";
+
+    /**
+     * Get the thread mode named by the <tt>icecube.daq.test.threads</tt>
+     * system property.
+     *
+     * @return selected mode (<tt>PLATFORM</tt> if the property is unset)
+     */
+    public static ThreadMode getDefault()
+    {
+        final String name = System.getProperty(PROPERTY);
+        if (name == null || name.length() == 0) {
+            return PLATFORM;
+        }
+
+        try {
+            return valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException iae) {
+            throw new Error("Unknown thread mode \"" + name + "\"");
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package icecube.daq.test;
+
+import icecube.daq.payload.ISourceID;
+import icecube.daq.payload.ITriggerRequestPayload;
+import icecube.daq.payload.TriggerRegistry;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Running statistics for a stream of merged trigger requests, such as the
+ * global trigger's output.  Memory use depends only on the number of
+ * distinct trigger types and sources, not on the length of the stream.
+ */
+public class TriggerStreamStats
+{
+    /** Number of DAQ ticks in a nanosecond */
+    private static final long TICKS_PER_NANO = 10L;
+    /** Deepest nesting of trigger requests which will be examined */
+    private static final int MAX_DEPTH = 4;
+
+    private long numTriggers;
+    private long numMerged;
+    private long numConstituents;
+    private long numOutOfOrder;
+    private long numOverlaps;
+    private long maxOverlap;
+
+    private long prevFirst = Long.MIN_VALUE;
+    private long prevLast = Long.MIN_VALUE;
+
+    /** Nanoseconds between the end of one trigger and the next one */
+    private LatencyHistogram gaps = new LatencyHistogram();
+    /** Length of each trigger's window in nanoseconds */
+    private LatencyHistogram lengths = new LatencyHistogram();
+    /** Number of constituent triggers in each trigger */
+    private LatencyHistogram mergeSizes = new LatencyHistogram();
+
+    /** Trigger types of the requests in the stream */
+    private TreeMap<Integer, long[]> types = new TreeMap<Integer, long[]>();
+    /** Trigger types of the constituent requests */
+    private TreeMap<Integer, long[]> subTypes =
+        new TreeMap<Integer, long[]>();
+    /** Sources of the constituent requests */
+    private TreeMap<Integer, long[]> sources =
+        new TreeMap<Integer, long[]>();
+
+    private static void increment(TreeMap<Integer, long[]> map, int key)
+    {
+        long[] count = map.get(key);
+        if (count == null) {
+            count = new long[1];
+            map.put(key, count);
+        }
+
+        count[0]++;
+    }
+
+    /**
+     * Count the lowest-level trigger requests inside a trigger request.
+     *
+     * @param tr trigger request
+     * @param depth nesting depth
+     *
+     * @return number of constituent requests
+     */
+    private int addConstituents(ITriggerRequestPayload tr, int depth)
+    {
+        List<?> subList;
+        try {
+            subList = tr.getPayloads();
+        } catch (Exception ex) {
+            return 0;
+        }
+
+        if (subList == null || depth >= MAX_DEPTH) {
+            return 0;
+        }
+
+        int numSub = 0;
+        for (Object obj : subList) {
+            if (!(obj instanceof ITriggerRequestPayload)) {
+                continue;
+            }
+
+            ITriggerRequestPayload sub = (ITriggerRequestPayload) obj;
+            try {
+                sub.loadPayload();
+            } catch (Exception ex) {
+                continue;
+            }
+
+            // merged requests wrap other requests
+            final int numInner = addConstituents(sub, depth + 1);
+            if (numInner > 0) {
+                numSub += numInner;
+                continue;
+            }
+
+            numSub++;
+
+            increment(subTypes, sub.getTriggerType());
+
+            ISourceID srcId = sub.getSourceID();
+            increment(sources, srcId == null ? -1 : srcId.getSourceID());
+        }
+
+        return numSub;
+    }
+
+    private static String getTypeName(int type)
+    {
+        String name = TriggerRegistry.getTriggerName(type);
+        if (name == null) {
+            name = "trigType<" + type + ">";
+        }
+
+        return name;
+    }
+
+    /**
+     * Add a trigger request to the statistics.
+     *
+     * @param tr trigger request
+     */
+    public synchronized void add(ITriggerRequestPayload tr)
+    {
+        final long firstTime = BaseValidator.getUTC(tr.getFirstTimeUTC());
+        final long lastTime = BaseValidator.getUTC(tr.getLastTimeUTC());
+
+        numTriggers++;
+        increment(types, tr.getTriggerType());
+
+        if (firstTime < prevFirst || lastTime < prevLast) {
+            numOutOfOrder++;
+        }
+
+        if (prevLast != Long.MIN_VALUE) {
+            if (firstTime <= prevLast) {
+                numOverlaps++;
+
+                final long overlap = Math.min(lastTime, prevLast) - firstTime;
+                if (overlap > maxOverlap) {
+                    maxOverlap = overlap;
+                }
+            } else {
+                gaps.record((firstTime - prevLast) / TICKS_PER_NANO);
+            }
+        }
+
+        if (lastTime >= firstTime) {
+            lengths.record((lastTime - firstTime) / TICKS_PER_NANO);
+        }
+
+        prevFirst = firstTime;
+        prevLast = Math.max(prevLast, lastTime);
+
+        final int numSub = addConstituents(tr, 0);
+        numConstituents += numSub;
+        mergeSizes.record(numSub);
+        if (numSub > 1) {
+            numMerged++;
+        }
+    }
+
+    public synchronized long getNumberOfOverlaps()
+    {
+        return numOverlaps;
+    }
+
+    public synchronized long getNumberOfTriggers()
+    {
+        return numTriggers;
+    }
+
+    /**
+     * Get the average number of constituent triggers in each trigger.
+     *
+     * @return merge ratio
+     */
+    public synchronized double getMergeRatio()
+    {
+        if (numTriggers == 0) {
+            return 0.0;
+        }
+
+        return (double) numConstituents / (double) numTriggers;
+    }
+
+    private static void appendCounts(StringBuilder buf, String title,
+                                     TreeMap<Integer, long[]> map,
+                                     long total, boolean isType)
+    {
+        buf.append(title).append('\n');
+        for (Map.Entry<Integer, long[]> entry : map.entrySet()) {
+            final String name;
+            if (isType) {
+                name = getTypeName(entry.getKey());
+            } else {
+                name = Integer.toString(entry.getKey());
+            }
+
+            final long count = entry.getValue()[0];
+            buf.append(String.format("  %-24s %10d %6.1f%%\n", name, count,
+                                     count * 100.0 / Math.max(1, total)));
+        }
+    }
+
+    /**
+     * Build a table summarizing the stream.
+     *
+     * @return summary table
+     */
+    public synchronized String getSummary()
+    {
+        StringBuilder buf = new StringBuilder();
+
+        buf.append(numTriggers).append(" triggers, ").append(numMerged).
+            append(" merged, merge ratio ").
+            append(String.format("%.2f", getMergeRatio())).append('\n');
+        buf.append(numOverlaps).append(" overlaps (max ").
+            append(LatencyHistogram.formatNanos(maxOverlap / TICKS_PER_NANO)).
+            append("), ").append(numOutOfOrder).append(" out of order\n");
+        buf.append("Gaps: ").append(gaps.toNanosString()).append('\n');
+        buf.append("Lengths: ").append(lengths.toNanosString()).append('\n');
+        buf.append("Merge sizes: ").append(mergeSizes).append('\n');
+
+        appendCounts(buf, "Trigger types:", types, numTriggers, true);
+        appendCounts(buf, "Constituent types:", subTypes, numConstituents,
+                     true);
+        appendCounts(buf, "Constituent sources:", sources, numConstituents,
+                     false);
+
+        return buf.toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TriggerStreamStats[" + getNumberOfTriggers() + " triggers]";
+    }
+}
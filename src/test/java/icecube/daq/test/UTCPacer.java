@@ -0,0 +1,102 @@
+package icecube.daq.test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Send payloads at the rate implied by their UTC times, optionally sped
+ * up or slowed down.  Payloads which are too short to hold a time, which
+ * hold a stop-message time, or which go back in time are sent at once.
+ */
+public class UTCPacer
+    implements Pacer
+{
+    /** Offset of the UTC time in a standard payload envelope */
+    public static final int ENVELOPE_OFFSET = 8;
+    /** Offset of the UTC time in a raw DOM hit */
+    public static final int DOM_HIT_OFFSET = 24;
+
+    /** Number of DAQ ticks (tenths of a nanosecond) in a nanosecond */
+    private static final long TICKS_PER_NANOSECOND = 10L;
+
+    private int utcOffset;
+    private double speedup;
+
+    private long firstTime;
+    private long startTime;
+
+    /**
+     * Replay payloads in real time.
+     *
+     * @param utcOffset offset of the UTC time in each payload
+     */
+    public UTCPacer(int utcOffset)
+    {
+        this(utcOffset, 1.0);
+    }
+
+    /**
+     * Replay payloads faster or slower than real time.
+     *
+     * @param utcOffset offset of the UTC time in each payload
+     * @param speedup <tt>2.0</tt> replays twice as fast as real time,
+     *                <tt>0.5</tt> at half speed
+     */
+    public UTCPacer(int utcOffset, double speedup)
+    {
+        if (utcOffset < 0) {
+            throw new Error("Bad UTC offset " + utcOffset);
+        } else if (speedup <= 0.0) {
+            throw new Error("Bad speedup " + speedup);
+        }
+
+        this.utcOffset = utcOffset;
+        this.speedup = speedup;
+
+        reset();
+    }
+
+    @Override
+    public void pace(ByteBuffer buf)
+    {
+        if (buf.limit() < utcOffset + 8) {
+            return;
+        }
+
+        final long utc = buf.getLong(utcOffset);
+        if (utc <= 0 || utc == Long.MAX_VALUE) {
+            return;
+        }
+
+        if (firstTime < 0) {
+            firstTime = utc;
+            startTime = System.nanoTime();
+            return;
+        }
+
+        if (utc <= firstTime) {
+            return;
+        }
+
+        final long elapsed = (utc - firstTime) / TICKS_PER_NANOSECOND;
+        final long target = startTime + (long) (elapsed / speedup);
+
+        long remaining = target - System.nanoTime();
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            remaining = target - System.nanoTime();
+        }
+    }
+
+    @Override
+    public void reset()
+    {
+        firstTime = -1L;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "UTCPacer[@" + utcOffset + "*" + speedup + "]";
+    }
+}
@@ -204,16 +204,10 @@ public class WorldTest
         }
     }
 
-    private static ArrayList<HitData> getInIceHits(IDOMRegistry domRegistry,
-                                                   int numEvents)
+    private static HitStore getInIceHits(IDOMRegistry domRegistry,
+                                         int numEvents)
     {
-        ArrayList<HitData> list =
-            new ArrayList<HitData>();
-
-        HitData.setDefaultTriggerType(2);
-        HitData.setDefaultConfigId(0);
-        HitData.setDefaultTriggerMode(2);
-        HitData.setDOMRegistry(domRegistry);
+        HitStore hits = new HitStore(domRegistry, 2, 0, 2);
 
         // these are trigger parameters
         final int numHitsPerWindow = 8;
@@ -233,7 +227,7 @@ public class WorldTest
 
                 int hub = 12000 + hubId[hubIdx];
                 long dom = hubDOM[hubIdx][domIdx];
-                list.add(new HitData(nextTime, hub, dom));
+                hits.add(nextTime, hub, dom);
                 nextTime += timeStep;
             }
             long last = nextTime - timeStep;
@@ -241,26 +235,24 @@ public class WorldTest
             nextTime += readoutWindow;
         }
 
-        return list;
+        return hits;
     }
 
-    private void sendHits(List<ISourceID> idList, List<HitData> hitList,
+    private void sendHits(List<ISourceID> idList, HitStore hits,
                           int startIndex, int numToSend)
         throws IOException
     {
-        ByteBuffer simpleBuf = ByteBuffer.allocate(HitData.SIMPLE_LENGTH);
-
-        for (int h = 0; h < numToSend; h++) {
-            HitData hd = hitList.get(startIndex + h);
+        ByteBuffer simpleBuf = ByteBuffer.allocate(HitStore.SIMPLE_LENGTH);
 
+        for (int h = startIndex; h < startIndex + numToSend; h++) {
             simpleBuf.clear();
-            hd.putSimple(simpleBuf);
+            hits.putSimple(h, simpleBuf);
             simpleBuf.flip();
 
             boolean written = false;
             for (int i = 0; i < iiTails.length; i++) {
                 ISourceID srcId = idList.get(i);
-                if (srcId.getSourceID() == hd.getSourceID()) {
+                if (srcId.getSourceID() == hits.getSourceID(h)) {
                     iiTails[i].sink().write(simpleBuf);
                     written = true;
                     break;
@@ -268,7 +260,7 @@ public class WorldTest
             }
 
             if (!written) {
-                fail("Couldn't write to source " + hd.getSourceID());
+                fail("Couldn't write to source " + hits.getSourceID(h));
             }
         }
     }
@@ -330,18 +322,35 @@ public class WorldTest
 
         PayloadChecker.clearRunNumber();
 
+        DAQTestUtil.clearLinkProfiles();
+
+        RequestToDataBridge.setNumberOfWorkers(0);
+        RequestToDataBridge.setRequestBufferCache(null);
+        RequestToDataBridge.clearResponseLatencies();
+
         System.clearProperty(LocatePDAQ.CONFIG_DIR_PROPERTY);
 
+        DAQTestUtil.reportValidators(getName());
+
         super.tearDown();
     }
 
-    public void testEndToEnd()
+    /**
+     * Send hits for <tt>numEvents</tt> events through the in-ice trigger,
+     * global trigger and event builder, and check that every event is
+     * built.
+     *
+     * @return request bridges for all the hubs
+     */
+    private Map<ISourceID, RequestToDataBridge> runEndToEnd()
         throws DAQCompException, IOException, PayloadFormatException,
                SplicerException, TriggerException
     {
         final boolean dumpActivity = false;
         final boolean dumpSplicers = false;
         final boolean dumpBEStats = false;
+        final boolean dumpRequestStats = false;
+        final boolean dumpValidationStats = false;
 
         final int numEvents = 100;
 
@@ -360,7 +369,7 @@ public class WorldTest
         }
 
         // get list of all hits
-        List<HitData> hitList = getInIceHits(domRegistry, numEvents);
+        HitStore hits = getInIceHits(domRegistry, numEvents);
 
         PayloadValidator validator = new TriggerValidator();
 
@@ -379,7 +388,7 @@ public class WorldTest
         Map<ISourceID, RequestToDataBridge> bridgeMap =
             RequestToDataBridge.createLinks(ebComp.getRequestWriter(), null,
                                             ebComp.getDataReader(),
-                                            ebComp.getDataCache(), hitList);
+                                            ebComp.getDataCache(), hits);
 
         List<ISourceID> idList = new ArrayList<ISourceID>(bridgeMap.keySet());
 
@@ -422,7 +431,7 @@ public class WorldTest
         ActivityMonitor activity =
             new ActivityMonitor(iiComp, null, gtComp, ebComp);
 
-        sendHits(idList, hitList, 0, hitList.size());
+        sendHits(idList, hits, 0, hits.size());
 
         activity.waitForStasis(10, 1000, numEvents, dumpActivity,
                                dumpSplicers);
@@ -454,6 +463,9 @@ public class WorldTest
                      numEvents, ebComp.getTriggerRequestsReceived());
         assertEquals("Missing events", numEvents, ebComp.getEventsSent());
 
+        if (dumpRequestStats) RequestToDataBridge.dumpStatistics(bridgeMap);
+        if (dumpValidationStats) DAQTestUtil.dumpValidationStatistics();
+
         DAQTestUtil.checkCaches(ebComp, gtComp, null, iiComp, null);
         DAQTestUtil.destroyComponentIO(ebComp, gtComp, null, iiComp, null);
 
@@ -461,6 +473,103 @@ public class WorldTest
             System.err.println("XXX Ignoring extra log msgs");
             appender.clear();
         }
+
+        return bridgeMap;
+    }
+
+    public void testEndToEnd()
+        throws DAQCompException, IOException, PayloadFormatException,
+               SplicerException, TriggerException
+    {
+        runEndToEnd();
+    }
+
+    public void testEmulatedLink()
+        throws DAQCompException, IOException, PayloadFormatException,
+               SplicerException, TriggerException
+    {
+        // the global trigger needs its input in time order, so the
+        // trigger link gets jitter and a bandwidth cap but no reordering
+        LinkProfile profile = new LinkProfile();
+        profile.setLatency(LatencyModel.uniform(100000L, 2000000L));
+        profile.setBandwidth(256L * 1024L, 4096L);
+        profile.setSeed(RUN_NUMBER);
+
+        DAQTestUtil.setLinkProfile("IIT->GT", profile);
+
+        runEndToEnd();
+
+        QueuedBridge link = null;
+        for (QueuedBridge qb : DAQTestUtil.getQueuedBridges()) {
+            if (qb.getName().equals("IIT->GT")) {
+                link = qb;
+            }
+        }
+
+        assertNotNull("IIT->GT link was not emulated", link);
+        assertTrue("IIT->GT link only queued " + link.getNumberQueued() +
+                   " payloads", link.getNumberQueued() >= 100);
+        assertTrue("IIT->GT link was never throttled",
+                   link.getThrottledNanos() > 0);
+    }
+
+    public void testRequestWorkers()
+        throws DAQCompException, IOException, PayloadFormatException,
+               SplicerException, TriggerException
+    {
+        IByteBufferCache reqCache = new VitreousBufferCache("Requests");
+
+        RequestToDataBridge.setNumberOfWorkers(4);
+        RequestToDataBridge.setRequestBufferCache(reqCache);
+
+        runEndToEnd();
+
+        assertTrue("No requests were read into leased buffers",
+                   reqCache.getTotalBuffersAcquired() > 0);
+
+        // bridges return their read buffers once the stop message arrives
+        int balChk = 0;
+        while (!reqCache.isBalanced() && balChk++ < 100) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException ie) {
+                break;
+            }
+        }
+
+        assertTrue("Request cache is not balanced (" + reqCache + ")",
+                   reqCache.isBalanced());
+    }
+
+    public void testResponseStalls()
+        throws DAQCompException, IOException, PayloadFormatException,
+               SplicerException, TriggerException
+    {
+        final long stallNanos = 100000000L;
+        final int stallHub = 12000 + hubId[0];
+
+        // every hub answers after a short delay, and one hub sometimes
+        // stalls for much longer
+        RequestToDataBridge.setResponseLatencySeed(RUN_NUMBER);
+        RequestToDataBridge.setDefaultResponseLatency(
+            LatencyModel.uniform(50000L, 500000L));
+        RequestToDataBridge.setResponseLatency(stallHub,
+            LatencyModel.withStalls(LatencyModel.constant(200000L), 0.1,
+                                    stallNanos));
+
+        Map<ISourceID, RequestToDataBridge> bridgeMap = runEndToEnd();
+
+        RequestToDataBridge stalled = null;
+        for (ISourceID srcId : bridgeMap.keySet()) {
+            if (srcId.getSourceID() == stallHub) {
+                stalled = bridgeMap.get(srcId);
+            }
+        }
+
+        assertNotNull("No bridge for hub " + stallHub, stalled);
+        assertTrue("Hub " + stallHub + " never stalled (" +
+                   stalled.getStatistics() + ")",
+                   stalled.getMaxRequestLatency() >= stallNanos);
     }
 
     public void testSwitchRun()
@@ -470,6 +579,8 @@ public class WorldTest
         final boolean dumpActivity = false;
         final boolean dumpSplicers = false;
         final boolean dumpBEStats = false;
+        final boolean dumpRequestStats = false;
+        final boolean dumpValidationStats = false;
 
         final int numEvents = 100;
 
@@ -488,7 +599,7 @@ public class WorldTest
                            cfgFile.getParent());
 
         // get list of all hits
-        List<HitData> hitList = getInIceHits(domRegistry, numEvents);
+        HitStore hits = getInIceHits(domRegistry, numEvents);
 
         PayloadValidator validator = new TriggerValidator();
 
@@ -507,7 +618,7 @@ public class WorldTest
         Map<ISourceID, RequestToDataBridge> bridgeMap =
             RequestToDataBridge.createLinks(ebComp.getRequestWriter(), null,
                                             ebComp.getDataReader(),
-                                            ebComp.getDataCache(), hitList);
+                                            ebComp.getDataCache(), hits);
 
         List<ISourceID> idList = new ArrayList<ISourceID>(bridgeMap.keySet());
 
@@ -550,8 +661,8 @@ public class WorldTest
         ActivityMonitor activity =
             new ActivityMonitor(iiComp, null, gtComp, ebComp);
 
-        final int midpoint = hitList.size() / 2;
-        sendHits(idList, hitList, 0, midpoint);
+        final int midpoint = hits.size() / 2;
+        sendHits(idList, hits, 0, midpoint);
 
         activity.waitForStasis(10, 1000, numEvents, dumpActivity,
                                dumpSplicers);
@@ -565,7 +676,7 @@ public class WorldTest
 
         switchToNewRun(RUN_NUMBER + 3);
 
-        sendHits(idList, hitList, midpoint, hitList.size() - midpoint);
+        sendHits(idList, hits, midpoint, hits.size() - midpoint);
 
         activity.waitForStasis(10, 1000, numEvents, dumpActivity,
                                dumpSplicers);
@@ -611,6 +722,9 @@ public class WorldTest
         assertEquals("Missing events", numEvents,
                      prevEvtsSent + ebComp.getEventsSent());
 
+        if (dumpRequestStats) RequestToDataBridge.dumpStatistics(bridgeMap);
+        if (dumpValidationStats) DAQTestUtil.dumpValidationStatistics();
+
         DAQTestUtil.checkCaches(ebComp, gtComp, null, iiComp, null, false);
         DAQTestUtil.destroyComponentIO(ebComp, gtComp, null, iiComp, null);
 
@@ -0,0 +1,31 @@
+package icecube.daq.test;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Yield the processor before every payload so other threads get a chance
+ * to run.  This is the harness's original behavior.
+ */
+public class YieldPacer
+    implements Pacer
+{
+    /** Shared instance, since this pacer has no state */
+    public static final YieldPacer INSTANCE = new YieldPacer();
+
+    @Override
+    public void pace(ByteBuffer buf)
+    {
+        Thread.yield();
+    }
+
+    @Override
+    public void reset()
+    {
+    }
+
+    @Override
+    public String toString()
+    {
+        return "YieldPacer";
+    }
+}